@@ -17,16 +17,12 @@
 */
 
 package ij.blob;
-import ij.IJ;
 import ij.ImagePlus;
 import ij.gui.NewImage;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.measure.Calibration;
 import ij.plugin.filter.EDM;
-import ij.plugin.filter.MaximumFinder;
-import ij.process.ByteProcessor;
-import ij.process.EllipseFitter;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 import ij.process.PolygonFiller;
@@ -39,11 +35,19 @@ import java.awt.geom.Point2D;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 //import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
 
 /**
  * Represents a connected component - a so called "blob".
+ * <p>
+ * The features are computed when they are requested first. The decoded contours, the runs 
+ * and the moments are published as complete objects, so they may be requested by several 
+ * threads at once. The other features are cached in plain fields: a blob whose features are 
+ * computed by one thread must not be read by other threads at the same time.
  * @author Thorsten Wagner
  */
 public class Blob {
@@ -52,12 +56,17 @@ public class Blob {
 	public final static int DRAW_CONVEX_HULL = 2;
 	public final static int DRAW_LABEL = 4;
 	
-	private static Color defaultColor = Color.black;
+	private static volatile Color defaultColor = Color.black;
 	
 
-	private Polygon outerContour;
-	private ArrayList<Polygon> innerContours; //Holes
+	private volatile Polygon outerContour; //Decoded from the chain code on the first request
+	private volatile ArrayList<Polygon> innerContours; //Holes
+	private ChainCode outerChainCode = null; //Contours of a blob which was labeled with chain codes
+	private ArrayList<ChainCode> innerChainCodes = null;
 	private int label;
+	private volatile int[] runs = null; //(row, first x, last x) of each run of pixels, complete when published
+	private int[] runBuffer = null; //Runs which are added during the labeling
+	private int nRuns = 0;
 	
 	//Features
 	private Point2D  centerOfGrafity = null;
@@ -78,11 +87,20 @@ public class Blob {
 	private double convexity = -1;
 	private double solidity = -1;
 	private double areaConvexHull = -1;
+	private double diameterMaximumInscribedCircle = -1;
+	private ConvexHull convexHull = null;
+	private double[] feretValues = null;
+	private double[] minimumBoundingRectangle = null; //Corners (x0, y0, ..., x3, y3)
+	private boolean minimumBoundingRectangleDone = false;
+	private ImagePlus retainedMask = null; //Shared by the mask based features while it is retained
+	private Polygon retainedContour = null; //Decoded chain code, shared by the contour based features while it is retained
 	private Calibration cal = new Calibration();
-	private double[][] centralMomentsLUT = {{-1,-1,-1},{-1,-1,-1},{-1,-1,-1}};
-	private double[][] momentsLUT = {{-1,-1,-1},{-1,-1,-1},{-1,-1,-1}};
-	EllipseFitter fittedEllipse = null;
-    static ArrayList<CustomBlobFeature> customFeatures = new ArrayList<CustomBlobFeature>();
+	private volatile MomentTable moments = null;
+	private double[] huMoments = null;
+	private static final int DEFAULT_MOMENT_ORDER = 3;
+	private double[] secondMoments = null; //Central second moments per area {c20, c02, c11}
+	private double[] fittedEllipse = null; //{major axis, minor axis, angle}
+    static List<CustomBlobFeature> customFeatures = new CopyOnWriteArrayList<CustomBlobFeature>(); //Features may be added while other threads evaluate them
 
 	public Blob(Polygon outerContour, int label) {
 		this.outerContour = outerContour;
@@ -102,6 +120,18 @@ public class Blob {
 		this.cal = cal;
 	}
 	
+	/**
+	 * Creates a blob which keeps its contours as chain codes until they are requested.
+	 * @param outerContour Contur of the blob as chain code
+	 * @param label Its unique label
+	 * @param cal The blob will use the image calibration
+	 */
+	Blob(ChainCode outerContour, int label, Calibration cal) {
+		this.outerChainCode = outerContour;
+		this.label = label;
+		this.cal = cal;
+	}
+	
 	public void setCalibration(Calibration  cal){
 		this.cal = cal;
 	}
@@ -147,11 +177,12 @@ public class Blob {
 			}
 		}
 		Object value=0;
+		CustomBlobFeature feature = customFeatures.get(featureIndex);
 		try {
-			customFeatures.get(featureIndex).setup(this);
-			Method m = customFeatures.get(featureIndex).getClass().getMethod(methodName, classparams);
+			feature.setup(this);
+			Method m = feature.getClass().getMethod(methodName, classparams);
 			
-			value = m.invoke((customFeatures.get(featureIndex)), params);
+			value = m.invoke(feature, params);
 			
 		} catch (NoSuchMethodException e) {
 			throw new NoSuchMethodException("The method " + methodName + " was not found");
@@ -167,6 +198,9 @@ public class Blob {
 		} catch (InvocationTargetException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+		} finally {
+			// Pooled threads must not keep the blob reachable
+			feature.release();
 		}
 		
 		return value;
@@ -174,11 +208,11 @@ public class Blob {
 	
 	void draw(ImageProcessor ip, int options, Color col){
 		ip.setColor(col);
-		fillPolygon(ip, outerContour, false);
+		fillPolygon(ip, getOuterContour(), false);
 		
 		
 		if((options&DRAW_HOLES)>0){
-			for(int i = 0; i < innerContours.size(); i++) {
+			for(int i = 0; i < getInnerContours().size(); i++) {
 				if(defaultColor==Color.white){
 					ip.setColor(Color.BLACK);
 				}
@@ -186,7 +220,7 @@ public class Blob {
 				{
 					ip.setColor(Color.white);
 				}
-				fillPolygon(ip, innerContours.get(i), true);
+				fillPolygon(ip, getInnerContours().get(i), true);
 				if(defaultColor==Color.white){
 					ip.setColor(Color.white);
 				}
@@ -194,7 +228,7 @@ public class Blob {
 				{
 					ip.setColor(Color.black);
 				}
-				ip.drawPolygon(innerContours.get(i));
+				ip.drawPolygon(getInnerContours().get(i));
 				
 			}
 		}
@@ -227,7 +261,7 @@ public class Blob {
 		
 		Roi roi = new PolygonRoi(x,y,n,Roi.TRACED_ROI);
 		
-		Roi.setColor(Color.green);
+		roi.setStrokeColor(Color.green);
 		
 		return roi;
 	}
@@ -243,15 +277,16 @@ public class Blob {
 	
 	void draw(ImageProcessor ip, int options, int deltax, int deltay){
 		ip.setColor(Color.BLACK);
-		Polygon p = new Polygon(outerContour.xpoints,outerContour.ypoints,outerContour.npoints);
+		Polygon p = decodeOuterContour();
+		p = new Polygon(p.xpoints,p.ypoints,p.npoints);
 		p.translate(deltax, deltay);
 		fillPolygon(ip, p, false);
 		
 		
 		if((options&DRAW_HOLES)>0){
-			for(int i = 0; i < innerContours.size(); i++) {
+			for(int i = 0; i < getInnerContours().size(); i++) {
 				ip.setColor(Color.WHITE);
-				p = new Polygon(innerContours.get(i).xpoints,innerContours.get(i).ypoints,innerContours.get(i).npoints);
+				p = new Polygon(getInnerContours().get(i).xpoints,getInnerContours().get(i).ypoints,getInnerContours().get(i).npoints);
 				p.translate(deltax, deltay);
 				fillPolygon(ip, p, true);
 			}
@@ -282,20 +317,31 @@ public class Blob {
 		draw(ip,DRAW_HOLES,col);
 	}
 	
-	@SuppressWarnings("unused")
-	private final double getArea(Polygon p) {
-		if (p==null) return Double.NaN;
-		
-		int carea = 0;
-		int iminus1;
-		for (int i=0; i<p.npoints; i++) {
-			iminus1 = i-1;
-			if (iminus1<0) iminus1=p.npoints-1;
-			carea += (p.xpoints[i]+p.xpoints[iminus1])*(p.ypoints[i]-p.ypoints[iminus1]);
+	/**
+	 * Counts the pixels of a traced contour by the shoelace formula and Pick's theorem. The contour
+	 * runs through the centers of its pixels, so it encloses area + steps/2 + 1 pixels (contour included)
+	 * and area - steps/2 + 1 pixels (contour excluded). This also holds for contours which pass 
+	 * a pixel several times.
+	 * @param p Closed contour whose points are 8-neighbours
+	 * @param includeContour true for outer contours, false for holes
+	 * @return The number of pixels or -1 if p is not a traced contour
+	 */
+	private static long getPixelCount(Polygon p, boolean includeContour) {
+		int n = p.npoints - 1;
+		if (n < 0 || p.xpoints[0] != p.xpoints[n] || p.ypoints[0] != p.ypoints[n]) {
+			return -1;
 		}
-
-		return (Math.abs(carea/2.0));
-		
+		long doubleArea = 0;
+		for (int i = 0; i < n; i++) {
+			int dx = p.xpoints[i+1] - p.xpoints[i];
+			int dy = p.ypoints[i+1] - p.ypoints[i];
+			if (dx < -1 || dx > 1 || dy < -1 || dy > 1 || (dx == 0 && dy == 0)) {
+				return -1;
+			}
+			doubleArea += (long)p.xpoints[i]*p.ypoints[i+1] - (long)p.xpoints[i+1]*p.ypoints[i];
+		}
+		doubleArea = Math.abs(doubleArea);
+		return includeContour ? (doubleArea + n)/2 + 1 : (doubleArea - n)/2 + 1;
 	}
 		
 	/**
@@ -311,13 +357,14 @@ public class Blob {
 		}
 		centerOfGrafity = new Point2D.Float();
 	    
-	    int[] x = outerContour.xpoints;
-	    int[] y = outerContour.ypoints;
+	    Polygon p = decodeOuterContour();
+	    int[] x = p.xpoints;
+	    int[] y = p.ypoints;
 	    int sumx = 0;
 	    int sumy = 0;
 	    double A = 0;
 
-	    for(int i = 0; i < outerContour.npoints-1; i++){
+	    for(int i = 0; i < p.npoints-1; i++){
 	    	int cross = (x[i]*y[i+1]-x[i+1]*y[i]);
 	    	sumx = sumx + (x[i]+x[i+1])*cross;
 	    	sumy = sumy + (y[i]+y[i+1])*cross;
@@ -342,12 +389,18 @@ public class Blob {
 	 * @return The feret diameter of the outer contour.
 	 */
 	public double getFeretDiameter() {
-		PolygonRoi proi = new PolygonRoi(outerContour, PolygonRoi.POLYLINE);
-		ImagePlus imp = new ImagePlus();
-		imp.setCalibration(cal);
-		proi.setImage(imp);
-		
-		return proi.getFeretsDiameter();
+		return getFeretValues()[0];
+	}
+	
+	/**
+	 * Method name of getFeretAngle (for filtering).
+	 */
+	public final static String GETFERETANGLE = "getFeretAngle";
+	/**
+	 * @return The angle of the feret diameter in grad (0 to 180, measured counter clockwise from the positive x axis)
+	 */
+	public double getFeretAngle() {
+		return getFeretValues()[1];
 	}
 	
 	/**
@@ -359,11 +412,47 @@ public class Blob {
 	 * @return The feret diameter of the outer contour.
 	 */
 	public double getMinFeretDiameter() {
-		PolygonRoi proi = new PolygonRoi(outerContour, PolygonRoi.POLYLINE);
-		ImagePlus imp = new ImagePlus();
-		imp.setCalibration(cal);
-		proi.setImage(imp);
-		return proi.getFeretValues()[2];
+		return getFeretValues()[2];
+	}
+	
+	/**
+	 * Method name of getFeretOrthogonalWidth (for filtering).
+	 */
+	public final static String GETFERETORTHOGONALWIDTH = "getFeretOrthogonalWidth";
+	/**
+	 * @return The width of the outer contour orthogonal to the min feret diameter
+	 */
+	public double getFeretOrthogonalWidth() {
+		return getFeretValues()[3];
+	}
+	
+	/**
+	 * The feret values are calculated together by the rotating calipers on the convex hull.
+	 * @return {feret diameter, feret angle, min feret diameter, orthogonal width}
+	 */
+	private double[] getFeretValues() {
+		if(feretValues == null){
+			ConvexHull hull = getHull();
+			double[] xs = new double[hull.npoints];
+			double[] ys = new double[hull.npoints];
+			for(int i = 0; i < hull.npoints; i++){
+				xs[i] = hull.xpoints[i]*cal.pixelWidth;
+				ys[i] = hull.ypoints[i]*cal.pixelHeight;
+			}
+			if(hull.getVertexCount() >= 3){
+				feretValues = RotatingCalipers.getFeretValues(xs, ys, hull.npoints);
+			}
+			else {
+				// A line or a single point
+				int last = hull.getVertexCount() - 1;
+				double dx = xs[last] - xs[0];
+				double dy = ys[last] - ys[0];
+				double length = Math.sqrt(dx*dx + dy*dy);
+				double angle = Math.toDegrees(Math.atan2(dx < 0 ? dy : -dy, Math.abs(dx)));
+				feretValues = new double[]{length, angle < 0 ? angle + 180 : angle, 0, length};
+			}
+		}
+		return feretValues;
 	}
 	
 	public final static String GETAREAEQUIVALENTSPHERICALDIAMETER = "getAreaEquivalentSphericalDiameter";
@@ -378,88 +467,160 @@ public class Blob {
 	
 	/**
 	 * Region-Based Moments Definition of "Gorman et. al. Practical Algorithms for Image Analysis" (p. 157).
-	 * (computational expensive!)
+	 * The moments are summed over the pixels of the blob (without its holes).
 	 * @return Region-Based Moments of order (p + q)
 	 * @param q (order = (p + q))
 	 * @param p (order = (p + q))
 	 */
 	public double getMoment(int p, int q) {
-		 if(p<=2 && q<=2){
-			 if(momentsLUT[p][q]!=-1){
-				 return momentsLUT[p][q];
-			 }
-		 }
-		 double moment = 0;
-	
-		Rectangle bounds = outerContour.getBounds();
-		for(int x = bounds.x; x < bounds.x+bounds.width+1;x++){
-			for(int y = bounds.y; y < bounds.y+bounds.height+1;y++){
-
-				if(outerContour.contains((double)x,(double)y)){
-					moment += Math.pow(cal.getX(x), p) * Math.pow(cal.getY(y), q);
-				}
-			} 
-		}
-		 momentsLUT[p][q] = moment;
-
-		 return moment;
+		return getMoments(Math.max(p, q)).raw[p][q];
 	}
 	
 	/**
 	 * Central Moments Definition of "Gorman et. al. Practical Algorithms for Image Analysis" (p. 158).
-	 * (computational expensive!)
 	 * @return Central Moment of Order (p + q)
 	 * @param q (order = (p + q))
 	 * @param p (order = (p + q))
 	 */
 	public double getCentralMoments(int p, int q){
-		
-		 if(p<=2 && q<=2){
-			 if(centralMomentsLUT[p][q]!=-1){
-				 return centralMomentsLUT[p][q];
-			 }
-		 }
-		
-		double centralMoment = 0;
-		double m00 = getMoment(0,0);
-		double xc = getMoment(1,0)/m00; //Centroid x
-		double yc = getMoment(0,1)/m00; //Centroid y
-		
-		if(p==0 && q == 0){
-			centralMoment = m00;
-		}
-		
-		else if(( p==0 && q==1) || ( p==1 && q==0)){
-			centralMoment = 0;
+		return getMoments(Math.max(p, q)).central[p][q];
+	}
+	
+	/**
+	 * Normalized central moment, which is invariant to translation and scaling:
+	 * mu(p,q) / mu(0,0)^(1+(p+q)/2)
+	 * Both moments are weighted with the calibrated pixel area, so the result does not change 
+	 * with the image calibration.
+	 * @return Normalized central moment of order (p + q)
+	 * @param q (order = (p + q))
+	 * @param p (order = (p + q))
+	 */
+	public double getNormalizedCentralMoment(int p, int q){
+		return normalize(getMoments(Math.max(p, q)).central, p, q);
+	}
+	
+	/**
+	 * @param central Central moments, summed over the pixels in calibrated coordinates
+	 * @return The normalized central moment of order (p + q)
+	 */
+	private double normalize(double[][] central, int p, int q) {
+		double pixelArea = cal.pixelWidth*cal.pixelHeight;
+		double area = central[0][0]*pixelArea;
+		return central[p][q]*pixelArea/Math.pow(area, 1+(p+q)/2.0);
+	}
+	
+	/**
+	 * The seven moment invariants of Hu (M. K. Hu, Visual pattern recognition by moment 
+	 * invariants, 1962). They are invariant to translation, scaling and rotation, the seventh
+	 * changes its sign under reflection.
+	 * @return The invariants I1 to I7
+	 */
+	public double[] getHuMoments(){
+		if(huMoments == null){
+			double[][] centralMoments = getMoments(3).central;
+			double n20 = normalize(centralMoments, 2, 0);
+			double n02 = normalize(centralMoments, 0, 2);
+			double n11 = normalize(centralMoments, 1, 1);
+			double n30 = normalize(centralMoments, 3, 0);
+			double n03 = normalize(centralMoments, 0, 3);
+			double n21 = normalize(centralMoments, 2, 1);
+			double n12 = normalize(centralMoments, 1, 2);
+			
+			double a = n30 + n12;
+			double b = n21 + n03;
+			double[] hu = new double[7];
+			hu[0] = n20 + n02;
+			hu[1] = (n20 - n02)*(n20 - n02) + 4*n11*n11;
+			hu[2] = (n30 - 3*n12)*(n30 - 3*n12) + (3*n21 - n03)*(3*n21 - n03);
+			hu[3] = a*a + b*b;
+			hu[4] = (n30 - 3*n12)*a*(a*a - 3*b*b) + (3*n21 - n03)*b*(3*a*a - b*b);
+			hu[5] = (n20 - n02)*(a*a - b*b) + 4*n11*a*b;
+			hu[6] = (3*n21 - n03)*a*(a*a - 3*b*b) - (n30 - 3*n12)*b*(3*a*a - b*b);
+			huMoments = hu;
 		}
-		
-		else if(p==1 && q == 1) {
-			centralMoment = getMoment(1, 1)-yc*getMoment(1, 0);
+		return huMoments.clone();
+	}
+	
+	/**
+	 * Calculates the moments up to the given order at once, so that later requests of a 
+	 * lower order use the same table.
+	 */
+	void prepareMoments(int order) {
+		getMoments(order);
+	}
+	
+	/**
+	 * Calculates all raw and central moments up to the given order in two passes over the runs 
+	 * of the blob. Tables of a higher order are kept for later requests.
+	 * @param order Largest exponent of x and y
+	 * @return The moments for p,q <= order (or a larger table)
+	 */
+	private MomentTable getMoments(int order) {
+		if(order < 0){
+			throw new IllegalArgumentException("The order of a moment has to be positive");
 		}
-		
-		else if(p==2 && q==0){
-			centralMoment = (getMoment(p, q) - xc*(getMoment(1, 0)));
+		MomentTable table = moments;
+		if(table != null && order <= table.order){
+			return table;
 		}
+		order = Math.max(order, DEFAULT_MOMENT_ORDER);
+		int[] runs = getRuns();
+		double[][] raw = new double[order+1][order+1];
+		sumMoments(runs, raw, 0, 0);
+		double[][] central = new double[order+1][order+1];
+		sumMoments(runs, central, raw[1][0]/raw[0][0], raw[0][1]/raw[0][0]);
+		central[1][0] = 0;
+		central[0][1] = 0;
+		table = new MomentTable(order, raw, central);
+		moments = table;
+		return table;
+	}
+	
+	/**
+	 * Raw and central moments moments[p][q] for all p,q <= order. The tables are complete
+	 * before the holder is published and are not changed afterwards.
+	 */
+	private static final class MomentTable {
+		final int order;
+		final double[][] raw;
+		final double[][] central;
 		
-		else if(p==0 && q==2){
-			centralMoment = (getMoment(p, q) - yc*(getMoment(0, 1)));
+		MomentTable(int order, double[][] raw, double[][] central) {
+			this.order = order;
+			this.raw = raw;
+			this.central = central;
 		}
-		else
-		{
-			Rectangle bounds = outerContour.getBounds();
-			for(int x = bounds.x; x < bounds.x+bounds.width;x++){
-				for(int y = bounds.y; y < bounds.y+bounds.height;y++){
-					if(outerContour.contains(x, y)){
-						centralMoment += Math.pow(cal.getX(x)-xc, p) * Math.pow(cal.getY(y)-yc, q);
-					}
-				} 
+	}
+	
+	/**
+	 * Adds the moments of all runs around (xc, yc) to m. The powers of x are summed along 
+	 * each run and combined with the powers of y once per run.
+	 */
+	private void sumMoments(int[] runs, double[][] m, double xc, double yc) {
+		int order = m.length - 1;
+		double[] sumX = new double[order+1];
+		double[] powY = new double[order+1];
+		for (int i = 0; i < runs.length; i += 3) {
+			Arrays.fill(sumX, 0);
+			for (int x = runs[i+1]; x <= runs[i+2]; x++) {
+				double dx = cal.getX(x) - xc;
+				double pow = 1;
+				for (int p = 0; p <= order; p++) {
+					sumX[p] += pow;
+					pow *= dx;
+				}
+			}
+			double dy = cal.getY(runs[i]) - yc;
+			powY[0] = 1;
+			for (int q = 1; q <= order; q++) {
+				powY[q] = powY[q-1]*dy;
+			}
+			for (int p = 0; p <= order; p++) {
+				for (int q = 0; q <= order; q++) {
+					m[p][q] += sumX[p]*powY[q];
+				}
 			}
-		
-			
 		}
-
-		centralMomentsLUT[p][q] = centralMoment;
-		return centralMoment;
 	}
 	
 	public final static String GETORIENTATIONMAJORAXIS = "getOrientationMajorAxis";
@@ -470,8 +631,7 @@ public class Blob {
 		if(orientation!=-1){
 			return orientation;
 		}
-		fitEllipse();
-		orientation = fittedEllipse.angle; 
+		orientation = fitEllipse()[2]; 
 		if(Math.abs(orientation-180)<0.01){
 			orientation = 0;
 		}
@@ -490,11 +650,21 @@ public class Blob {
 		return orientation-90;
 	}
 	
+	/**
+	 * The second moment matrix is shared by the eigenvalues and the ellipse fit.
+	 */
+	private double[] getSecondMoments() {
+		if(secondMoments == null){
+			double c00 = getCentralMoments(0, 0);
+			secondMoments = new double[]{getCentralMoments(2,0)/c00, getCentralMoments(0,2)/c00, getCentralMoments(1,1)/c00};
+		}
+		return secondMoments;
+	}
+	
 	private double getEigenvalue(boolean major) {
-		double c00 = getCentralMoments(0, 0);
-		double c20 = getCentralMoments(2,0)/c00;
-		double c02 = getCentralMoments(0,2)/c00;
-		double c11 = getCentralMoments(1,1)/c00;
+		double c20 = getSecondMoments()[0];
+		double c02 = getSecondMoments()[1];
+		double c11 = getSecondMoments()[2];
 
 		double valuea = 0.5*(c20+c02)+0.5*Math.sqrt(4*Math.pow(c11, 2)+Math.pow(c20-c02, 2));
 		double valueb = 0.5*(c20+c02)-0.5*Math.sqrt(4*Math.pow(c11, 2)+Math.pow(c20-c02, 2));
@@ -514,8 +684,12 @@ public class Blob {
 	}
 	
 	/**
-	 * Calculates Eigenvalue from the major axis using the moments of the boundary
-	 * @return Return the Eigenvalue from the major axis (computational expensive!)
+	 * Method name of getEigenvalueMajorAxis (for filtering).
+	 */
+	public final static String GETEIGENVALUEMAJORAXIS = "getEigenvalueMajorAxis";
+	/**
+	 * Calculates Eigenvalue from the major axis using the central moments of the blob
+	 * @return Return the Eigenvalue from the major axis
 	 */
 	public double getEigenvalueMajorAxis() {
 		if(eigenMajor!=-1){
@@ -526,8 +700,12 @@ public class Blob {
 	}
 	
 	/**
-	 * Calculates Eigenvalue from the minor axis using the moments of the boundary
-	 * @return Return the Eigenvalue from the minor axis (computational expensive!)
+	 * Method name of getEigenvalueMinorAxis (for filtering).
+	 */
+	public final static String GETEIGENVALUEMINORAXIS = "getEigenvalueMinorAxis";
+	/**
+	 * Calculates Eigenvalue from the minor axis using the central moments of the blob
+	 * @return Return the Eigenvalue from the minor axis
 	 */
 	public double getEigenvalueMinorAxis() {
 		if(eigenMinor!=-1){
@@ -550,36 +728,47 @@ public class Blob {
 		if(elongation!= -1){
 			return elongation;
 		}
-		fitEllipse();
-		elongation = 1- fittedEllipse.minor/fittedEllipse.major;
+		double[] ellipse = fitEllipse();
+		elongation = 1- ellipse[1]/ellipse[0];
 		elongation = Math.sqrt(elongation);
 
 		return elongation;
 	}
 	
 	public Point[] getMinimumBoundingRectangle(){
-		int[] xp = new int[getOuterContour().npoints];
-		int[] yp = new int[getOuterContour().npoints];
-		for(int i = 0; i < getOuterContour().npoints; i++){
-			xp[i] = getOuterContour().xpoints[i];
-			yp[i] = getOuterContour().ypoints[i];
-		}
-		Point2D.Double[] mbr;
-		try{
-			mbr = RotatingCalipers.getMinimumBoundingRectangle(xp, yp);
-		}
-		catch(IllegalArgumentException e){
+		double[] mbr = getMinimumBoundingRectangleCorners();
+		if(mbr == null){
 			return null;
 		}
 		Point[] p = new Point[4];
-		for(int i = 0; i < mbr.length; i++){
-			//IJ.log("i " + i);
-			p[i] = new Point();
-			p[i].x = (int)mbr[i].x;
-			p[i].y = (int)mbr[i].y;
+		for(int i = 0; i < 4; i++){
+			p[i] = new Point((int)mbr[2*i], (int)mbr[2*i+1]);
 		}
 		return p;
-		
+	}
+	
+	/**
+	 * The rectangle is calculated once by the rotating calipers on the convex hull.
+	 * @return The corners of the minimum bounding rectangle or null if the hull has less than three points
+	 */
+	private double[] getMinimumBoundingRectangleCorners(){
+		if(!minimumBoundingRectangleDone){
+			ConvexHull hull = getHull();
+			if(hull.getVertexCount() >= 3){
+				minimumBoundingRectangle = RotatingCalipers.getMinimumAreaRectangle(hull.xpoints, hull.ypoints, hull.npoints);
+			}
+			minimumBoundingRectangleDone = true;
+		}
+		return minimumBoundingRectangle;
+	}
+	
+	/**
+	 * @return Calibrated length of the side between the corners i and j of the minimum bounding rectangle
+	 */
+	private double getSideMBR(double[] mbr, int i, int j){
+		double dx = (mbr[2*j] - mbr[2*i])*cal.pixelWidth;
+		double dy = (mbr[2*j+1] - mbr[2*i+1])*cal.pixelHeight;
+		return Math.sqrt(dx*dx + dy*dy);
 	}
 	
 	/**
@@ -591,14 +780,14 @@ public class Blob {
 	 * @return The long side length of the minimum enclosing rectangle
 	 */
 	public double getLongSideMBR(){
-		Point[] mbr = getMinimumBoundingRectangle();
+		double[] mbr = getMinimumBoundingRectangleCorners();
 		
 		if(mbr == null){
 			return Double.NaN;
 		}
 		
-		double firstSide = Math.sqrt(Math.pow(cal.getX(mbr[1].x) -cal.getX(mbr[0].x),2)+Math.pow(cal.getY(mbr[1].y) - cal.getY(mbr[0].y),2));
-		double secondSide = Math.sqrt(Math.pow(cal.getX(mbr[1].x) -cal.getX(mbr[2].x),2)+Math.pow(cal.getY(mbr[1].y) -cal.getY(mbr[2].y),2));
+		double firstSide = getSideMBR(mbr, 0, 1);
+		double secondSide = getSideMBR(mbr, 1, 2);
 		
 		return firstSide>secondSide?firstSide:secondSide;
 	}
@@ -612,12 +801,12 @@ public class Blob {
 	 * @return The short side length of the minimum enclosing rectangle
 	 */
 	public double getShortSideMBR(){
-		Point[] mbr = getMinimumBoundingRectangle();
+		double[] mbr = getMinimumBoundingRectangleCorners();
 		if(mbr == null){
 			return Double.NaN;
 		}
-		double firstSide = Math.sqrt(Math.pow(cal.getX(mbr[1].x) -cal.getX(mbr[0].x),2)+Math.pow(cal.getY(mbr[1].y) - cal.getY(mbr[0].y),2));
-		double secondSide = Math.sqrt(Math.pow(cal.getX(mbr[1].x) -cal.getX(mbr[2].x),2)+Math.pow(cal.getY(mbr[1].y) -cal.getY(mbr[2].y),2));
+		double firstSide = getSideMBR(mbr, 0, 1);
+		double secondSide = getSideMBR(mbr, 1, 2);
 		
 		return firstSide<secondSide?firstSide:secondSide;
 	}
@@ -636,23 +825,28 @@ public class Blob {
 		return getLongSideMBR()/getShortSideMBR();
 	}
 	
-	private void fitEllipse(){
+	/**
+	 * Fits the ellipse with the same second moments as the blob. Like the EllipseFitter of ImageJ
+	 * each pixel contributes the moments of a square (1/12 of its squared size), so a single pixel 
+	 * is a circle.
+	 * @return {major axis, minor axis, angle of the major axis in grad (counter clockwise)}
+	 */
+	private double[] fitEllipse(){
 		if(fittedEllipse==null){
-			fittedEllipse = new EllipseFitter();
-			Rectangle r = outerContour.getBounds();
-
-			ImagePlus help = NewImage.createByteImage("", r.width+1, r.height+1, 1, NewImage.FILL_WHITE);
-			ByteProcessor ip =  (ByteProcessor) help.getProcessor();
-			ip.setColor(Color.black);
-			Polygon p = new Polygon(outerContour.xpoints, outerContour.ypoints, outerContour.npoints);
-			p.translate(-r.x, -r.y);
-			ip.resetRoi();
-			ip.setRoi(p);	
-			
-
-			fittedEllipse.fit(ip, null);
+			double a = getSecondMoments()[0] + cal.pixelWidth*cal.pixelWidth/12;
+			double b = getSecondMoments()[1] + cal.pixelHeight*cal.pixelHeight/12;
+			double c = getSecondMoments()[2];
+			double root = Math.sqrt((a-b)*(a-b)/4 + c*c);
+			double major = 4*Math.sqrt((a+b)/2 + root);
+			double minor = 4*Math.sqrt(Math.max((a+b)/2 - root, 0));
+			// The y axis of the image points downwards
+			double angle = -Math.toDegrees(0.5*Math.atan2(2*c, a-b));
+			if(angle <= 0){
+				angle += 180;
+			}
+			fittedEllipse = new double[]{major, minor, angle};
 		}
-		
+		return fittedEllipse;
 	}
 
 	private void fillPolygon(ImageProcessor ip, Polygon p, boolean internContour) {
@@ -673,13 +867,69 @@ public class Blob {
 	 * @return The outer contour of an object (polygon points are pixel indicies)
 	 */
 	public Polygon getOuterContour() {
-		return outerContour;
+		Polygon contour = outerContour;
+		if(contour == null){
+			// The chain code is kept, so a concurrent request decodes it again instead of seeing it swapped
+			contour = outerChainCode.toPolygon();
+			outerContour = contour;
+		}
+		return contour;
+	}
+	
+	/**
+	 * For features which read the outer contour once: a chain code is decoded into 
+	 * a temporary polygon, which is not kept by the blob.
+	 */
+	private Polygon decodeOuterContour() {
+		Polygon contour = outerContour;
+		if(contour == null){
+			contour = retainedContour;
+		}
+		return contour != null ? contour : outerChainCode.toPolygon();
+	}
+	
+	/**
+	 * @return The number of points of the outer contour, without decoding a chain code
+	 */
+	int getOuterContourPointCount() {
+		Polygon contour = outerContour;
+		return contour != null ? contour.npoints : outerChainCode.length() + 1;
+	}
+	
+	/**
+	 * Keeps the decoded outer contour until {@link #releaseContour()} is called, so that 
+	 * the contour based features decode a chain code only once.
+	 */
+	void retainContour() {
+		if(outerContour == null && retainedContour == null){
+			retainedContour = outerChainCode.toPolygon();
+		}
+	}
+	
+	void releaseContour() {
+		retainedContour = null;
+	}
+	
+	/**
+	 * The bounding rectangle of the outer contour like {@link Polygon#getBounds()}. 
+	 * A chain code is not decoded.
+	 * @return A copy of the bounds
+	 */
+	Rectangle getBounds() {
+		Polygon contour = outerContour;
+		if(contour != null){
+			return contour.getBounds();
+		}
+		return outerChainCode.getBounds();
 	}
 	/**
 	 * Calculates the freeman chain code the outer contour
 	 * @return The outer contour as freeman chain code
 	 */
 	public int[] getOuterContourAsChainCode(){
+		if(outerChainCode != null){
+			return outerChainCode.toArray();
+		}
 		return contourToChainCode(getOuterContour());
 	}
 	
@@ -689,7 +939,17 @@ public class Blob {
 	 * @return Arraylist of the inner contours.
 	 */
 	public ArrayList<Polygon> getInnerContours() {
-		return innerContours;
+		ArrayList<Polygon> holes = innerContours;
+		if(holes == null){
+			holes = new ArrayList<Polygon>();
+			if(innerChainCodes != null){
+				for (ChainCode c : innerChainCodes) {
+					holes.add(c.toPolygon());
+				}
+			}
+			innerContours = holes;
+		}
+		return holes;
 	}
 	
 	/**
@@ -697,9 +957,164 @@ public class Blob {
 	 * @param contour Contour of the hole.
 	 */
 	void addInnerContour(Polygon contour) {
-		innerContours.add(contour);
+		getInnerContours().add(contour);
+	}
+	
+	/**
+	 * Adds an inner contour (hole) as chain code, it is decoded when the holes are requested.
+	 * @param contour Contour of the hole.
+	 */
+	void addInnerContour(ChainCode contour) {
+		if(innerChainCodes == null){
+			innerChainCodes = new ArrayList<ChainCode>(2);
+		}
+		innerChainCodes.add(contour);
+		ArrayList<Polygon> holes = innerContours;
+		if(holes != null){
+			holes.add(contour.toPolygon());
+		}
 	}
 
+	/**
+	 * Adds a run of pixels. The runs have to be added in raster order and are published 
+	 * by {@link #trimRuns()}.
+	 */
+	void addRun(int row, int start, int end) {
+		if (runBuffer == null) {
+			runBuffer = new int[12];
+		} else if (3 * nRuns + 3 > runBuffer.length) {
+			int[] help = new int[runBuffer.length * 2];
+			System.arraycopy(runBuffer, 0, help, 0, 3 * nRuns);
+			runBuffer = help;
+		}
+		runBuffer[3 * nRuns] = row;
+		runBuffer[3 * nRuns + 1] = start;
+		runBuffer[3 * nRuns + 2] = end;
+		nRuns++;
+	}
+	
+	/**
+	 * Takes over complete runs in raster order, see {@link #getRunLengthEncoding()}.
+	 */
+	void setRuns(int[] runs) {
+		this.runs = runs;
+	}
+
+	/**
+	 * Publishes the added runs without the spare capacity of the buffer. Called once by the 
+	 * labeling after the last run was added.
+	 */
+	void trimRuns() {
+		if (runBuffer == null) {
+			return;
+		}
+		int[] help = runBuffer;
+		if (help.length != 3 * nRuns) {
+			help = new int[3 * nRuns];
+			System.arraycopy(runBuffer, 0, help, 0, 3 * nRuns);
+		}
+		runBuffer = null;
+		nRuns = 0;
+		runs = help;
+	}
+	
+	/**
+	 * The runs of the blob (see {@link #getRunLengthEncoding()}). If they were not recorded by 
+	 * the labeling, they are created from the blob image and published as complete array, so 
+	 * they may be requested by several threads at once.
+	 * @return The runs of the blob. The returned array must not be modified.
+	 */
+	int[] getRuns() {
+		int[] r = runs;
+		if (r == null) {
+			r = drawRuns();
+			runs = r;
+		}
+		return r;
+	}
+	
+	/**
+	 * @return The runs of the pixels of the blob image
+	 */
+	private int[] drawRuns() {
+		ImageProcessor ip = generateBlobImage(this).getProcessor();
+		Rectangle r = getBounds();
+		int[] buffer = new int[12];
+		int n = 0;
+		for (int y = 0; y < ip.getHeight(); y++) {
+			int start = -1;
+			for (int x = 0; x < ip.getWidth(); x++) {
+				boolean object = ip.get(x, y) == 0;
+				if(object && start == -1){
+					start = x;
+				}
+				if(start != -1 && (!object || x == ip.getWidth() - 1)){
+					if (n + 3 > buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+					buffer[n] = y + r.y - 1;
+					buffer[n + 1] = start + r.x - 1;
+					buffer[n + 2] = (object ? x : x - 1) + r.x - 1;
+					n += 3;
+					start = -1;
+				}
+			}
+		}
+		return Arrays.copyOf(buffer, n);
+	}
+	
+	/**
+	 * Moves the contours and the runs of the blob. The cached features which depend on 
+	 * the position are discarded.
+	 */
+	void translate(int deltax, int deltay) {
+		if(outerChainCode != null){
+			outerChainCode.translate(deltax, deltay);
+		}
+		if(outerContour != null){
+			outerContour.translate(deltax, deltay);
+		}
+		if(innerContours != null){
+			for (Polygon p : innerContours) {
+				p.translate(deltax, deltay);
+			}
+		}
+		if(innerChainCodes != null){
+			for (ChainCode c : innerChainCodes) {
+				c.translate(deltax, deltay);
+			}
+		}
+		if(convexHull != null){
+			convexHull.translate(deltax, deltay);
+		}
+		// The other features which depend on the position are calculated again on request
+		moments = null;
+		centerOfGrafity = null;
+		feretValues = null;
+		minimumBoundingRectangle = null;
+		minimumBoundingRectangleDone = false;
+		retainedMask = null;
+		retainedContour = null;
+		int[] r = runs;
+		if (r != null) {
+			for (int i = 0; i < r.length; i += 3) {
+				r[i] += deltay;
+				r[i + 1] += deltax;
+				r[i + 2] += deltax;
+			}
+		}
+	}
+	
+	/**
+	 * The pixels of the blob as run-length encoding, which is recorded by the labeling. 
+	 * Each run is stored as triple (row, first x, last x), the runs are ordered by row and x.
+	 * Pixels of holes are not part of the runs. The returned array must not be modified.
+	 * @return The runs or null if the blob was not created by the labeling.
+	 */
+	public int[] getRunLengthEncoding() {
+		return runs;
+	}
+	
 	/**
 	 * Return the label of the blob in the labeled image
 	 * @return Return blob's label in the labeled image
@@ -726,8 +1141,8 @@ public class Blob {
 		if(perimeter!=-1){
 			return perimeter;
 		}
-		
-		return getPerimeterOfContour(getOuterContour());
+		perimeter = getPerimeterOfContour(decodeOuterContour());
+		return perimeter;
 	}
 	
 	private double getPerimeterOfContour(Polygon contour){
@@ -747,13 +1162,6 @@ public class Blob {
 		}
 		
 		peri = sum_gerade*0.948 + (cc.length-sum_gerade)*1.340;
-		
-
-		
-		PolygonRoi roi = new PolygonRoi(outerContour, Roi.POLYLINE);
-		ImagePlus dummy = new ImagePlus();
-		dummy.setCalibration(cal);
-		roi.setImage(dummy);
 
 		return peri*cal.pixelHeight;
 	}
@@ -806,21 +1214,7 @@ public class Blob {
 		if(perimeterConvexHull!=-1){
 			return perimeterConvexHull;
 		}
-		PolygonRoi convexRoi = null;
-		
-		Polygon hull = getConvexHull();
-		perimeterConvexHull = 0;
-		try {
-		convexRoi = new PolygonRoi(hull, Roi.POLYGON);
-		ImagePlus dummy = new ImagePlus();
-		dummy.setCalibration(cal);
-		convexRoi.setImage(dummy);
-		perimeterConvexHull = convexRoi.getLength();
-		}catch(Exception e){
-			perimeterConvexHull = getPerimeter();
-			IJ.log("Blob ID: "+ getLabel() +" Error calculating the perimeter of the convex hull. Returning the regular perimeter");
-		}
-		
+		perimeterConvexHull = getHull().getPerimeter(cal);
 		return perimeterConvexHull;
 	}
 	
@@ -849,17 +1243,9 @@ public class Blob {
 	 * @return true if the blob is on a edge.
 	 */
 	public boolean isOnEdge(ImageProcessor ip){
-		
-		Polygon p = getOuterContour();
-		for(int i = 0; i < p.npoints; i++){
-			int x = p.xpoints[i];
-			int y = p.ypoints[i];
-			if(x == 0 || y == 0 || x == (ip.getWidth()-1) || y == (ip.getHeight()-1)){
-				return true;
-			}
-		}
-		
-		return false;
+		// The extreme points of the contour are the sides of its bounds
+		Rectangle r = getBounds();
+		return r.x == 0 || r.y == 0 || r.x + r.width == ip.getWidth()-1 || r.y + r.height == ip.getHeight()-1;
 	}
 	
 	/**
@@ -886,58 +1272,21 @@ public class Blob {
 	 */
 
 	public Polygon getConvexHull() {
-		PolygonRoi roi = new PolygonRoi(outerContour, Roi.POLYGON);
-		Polygon hull = roi.getConvexHull();
-		if(hull==null){
+		ConvexHull hull = getHull();
+		if(hull.getVertexCount() < 3){
 			return getOuterContour();
 		}
-		return hull;
+		return hull.toPolygon();
 	}
 	
-	@SuppressWarnings("unused")
-	private double getAreaOfChainCode(int[] cc){
-		int B = 1;
-		double A = 0;
-		for(int i = 0; i < cc.length; i++){
-			switch(cc[i]){
-			
-			case 0:
-				A -= B;
-				break;
-			case 1:
-				B += 1;
-				A += -(B + 0.5);
-				break;
-			case 2:
-				B += 1;
-				break;
-			case 3:
-				B += 1;
-				A += B+0.5;
-				break;
-			case 4:
-				A += B;
-				break;
-			case 5:
-				B += -1;
-				A += B - 0.5;
-				break;
-			case 6:
-				B += -1;
-				break;
-			case 7:
-				B += -1;
-				A += -(B-0.5);
-				break;
-			}
-		}
-		
-		double area = Math.abs(A);
-
-		if(area==0){
-			area=1;
+	/**
+	 * The hull is calculated once and shared by all hull based features.
+	 */
+	private ConvexHull getHull() {
+		if(convexHull == null){
+			convexHull = ConvexHull.of(decodeOuterContour());
 		}
-		return area;
+		return convexHull;
 	}
 	
 	/**
@@ -945,22 +1294,33 @@ public class Blob {
 	 */
 	public final static String GETENCLOSEDAREA = "getEnclosedArea";
 	/**
-	 * Calculates the enclosed are of the outer contour without subsctracting possible holes.
-	 * @return The enclosed area of the outer contour (without substracting the holes).
+	 * Calculates the enclosed area of the blob, the pixels of its holes are not counted.
+	 * @return The enclosed area of the blob (without the holes).
 	 */
 	public double getEnclosedArea() {
 		if(enclosedArea!=-1){
 			return enclosedArea;
 		}
-		/*
-		int[] cc = contourToChainCode(getOuterContour());
-		enclosedArea = getAreaOfChainCode(cc)*cal.pixelHeight*cal.pixelWidth;
-		*/
-		
-		//enclosedArea = getArea(getOuterContour())*cal.pixelHeight*cal.pixelWidth;
-		
-		ImagePlus imp = generateBlobImage(this);
-		enclosedArea = imp.getStatistics().histogram[0]*cal.pixelHeight*cal.pixelWidth;
+		long pixelCount = 0;
+		int[] r = runs;
+		if(r != null){
+			for (int i = 0; i < r.length; i += 3) {
+				pixelCount += r[i + 2] - r[i + 1] + 1;
+			}
+		}
+		else {
+			pixelCount = getPixelCount(decodeOuterContour(), true);
+			for (int i = 0; i < getInnerContours().size() && pixelCount != -1; i++) {
+				long holePixels = getPixelCount(getInnerContours().get(i), false);
+				pixelCount = holePixels == -1 ? -1 : pixelCount - holePixels;
+			}
+			if(pixelCount == -1){
+				// Not a traced contour, the blob is drawn
+				ImagePlus imp = generateBlobImage(this);
+				pixelCount = imp.getStatistics().histogram[0];
+			}
+		}
+		enclosedArea = pixelCount*cal.pixelHeight*cal.pixelWidth;
 		
 		return enclosedArea;
 	}
@@ -971,29 +1331,13 @@ public class Blob {
 	 */
 	public final static String GETAREACONVEXHULL = "getAreaConvexHull";
 	/**
-	 * @return Area of the convex hull
+	 * @return Area of the convex hull (the pixels inside of the hull or on its border)
 	 */
 	public double getAreaConvexHull(){
 		if(areaConvexHull!=-1){
 			return areaConvexHull;
 		}
-		Polygon polyPoints = getConvexHull();
-		/*
-		int i, j, n = polyPoints.npoints;
-		areaConvexHull = 0;
-
-		for (i = 0; i < n; i++) {
-			j = (i + 1) % n;
-			areaConvexHull += polyPoints.xpoints[i] * polyPoints.ypoints[j];
-			areaConvexHull -= polyPoints.xpoints[j] * polyPoints.ypoints[i];
-		}
-		areaConvexHull /= 2.0;
-		areaConvexHull = Math.abs(areaConvexHull)*cal.pixelHeight*cal.pixelWidth;;
-		*/
-		
-		Blob helpblob = new Blob(polyPoints, -1);
-		ImagePlus imp = generateBlobImage(helpblob);
-		areaConvexHull = imp.getStatistics().getHistogram()[0]*cal.pixelHeight*cal.pixelWidth;
+		areaConvexHull = getHull().getPixelCount()*cal.pixelHeight*cal.pixelWidth;
 		return areaConvexHull;
 		
 	}
@@ -1090,24 +1434,75 @@ public class Blob {
 	 */
 	public final static String GETDIAMETERMAXIMUMINSCRIBEDCIRCLE = "getDiamaterMaximumInscribedCircle";
 	public double getDiamaterMaximumInscribedCircle() {
-		ImagePlus help = generateBlobImage(this);
-		ImageProcessor ipHelp = help.getProcessor();
-		ipHelp.invert();
+		if(diameterMaximumInscribedCircle != -1){
+			return diameterMaximumInscribedCircle;
+		}
+		ImageProcessor ipHelp = getBlobMask().getProcessor();
 		EDM dm = new EDM();
-		FloatProcessor fp = dm.makeFloatEDM (ipHelp, 0, false);
-		
-		MaximumFinder mf  = new MaximumFinder();
-		ByteProcessor bp = mf.findMaxima(fp, 0.5, ImageProcessor.NO_THRESHOLD, MaximumFinder.SINGLE_POINTS, false, true);
-		Polygon pl = mf.getMaxima(bp, 0, true);
-		return fp.getf(pl.xpoints[0], pl.ypoints[0])*2*cal.getX(1);
+		// The white pixels of the mask are the background (the mask is not modified)
+		FloatProcessor fp = dm.makeFloatEDM (ipHelp, (byte)255, false);
 		
+		// The radius is the largest distance to the background
+		float[] distances = (float[]) fp.getPixels();
+		float max = 0;
+		for (int i = 0; i < distances.length; i++) {
+			if (distances[i] > max) {
+				max = distances[i];
+			}
+		}
+		setMaximumDistanceToBackground(max);
+		return diameterMaximumInscribedCircle;
+	}
+	
+	/**
+	 * Sets the diameter of the maximum inscribed circle, see {@link ManyBlobs#computeDiametersMaximumInscribedCircle()}.
+	 * @param max The largest distance of a blob pixel to the background (in pixels)
+	 */
+	void setMaximumDistanceToBackground(float max) {
+		diameterMaximumInscribedCircle = max*2*cal.getX(1);
+	}
+	
+	/**
+	 * Keeps the blob image until {@link #releaseMask()} is called, so that the mask based
+	 * features can share it.
+	 */
+	void retainMask() {
+		if(retainedMask == null){
+			retainedMask = generateBlobImage(this);
+		}
+	}
+	
+	void releaseMask() {
+		retainedMask = null;
+	}
+	
+	/**
+	 * @return The retained blob image or a new one. The caller must not change its pixels.
+	 */
+	ImagePlus getBlobMask() {
+		if(retainedMask != null){
+			retainedMask.getProcessor().resetRoi();
+			return retainedMask;
+		}
+		return generateBlobImage(this);
 	}
 	
 	public static ImagePlus generateBlobImage(Blob b){
-		Rectangle r = b.getOuterContour().getBounds();
+		Rectangle r = b.getBounds();
 		r.setBounds(r.x, r.y, (int)r.getWidth()+1, (int)r.getHeight()+1);
 		ImagePlus help = NewImage.createByteImage("", r.width+2, r.height+2, 1, NewImage.FILL_WHITE);
 		ImageProcessor ip = help.getProcessor();
+		int[] runs = b.runs;
+		if(runs != null){
+			// The mask is written directly from the runs
+			byte[] pixels = (byte[]) ip.getPixels();
+			int w = ip.getWidth();
+			for (int i = 0; i < runs.length; i += 3) {
+				int offset = (runs[i] - r.y + 1) * w - r.x + 1;
+				Arrays.fill(pixels, offset + runs[i + 1], offset + runs[i + 2] + 1, (byte) 0);
+			}
+			return help;
+		}
 		b.draw(ip, Blob.DRAW_HOLES, -(r.x-1), -(r.y-1));
 		help.setProcessor(ip);
 		return help;
@@ -1148,6 +1543,10 @@ public class Blob {
 	 * @return The number of inner contours (Holes) of a blob.
 	 */
 	public int getNumberofHoles() {
-		return innerContours.size();
+		ArrayList<Polygon> holes = innerContours;
+		if(holes != null){
+			return holes.size();
+		}
+		return innerChainCodes == null ? 0 : innerChainCodes.size();
 	}
 }
@@ -0,0 +1,346 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import java.util.EnumSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Calculates a set of features for many blobs. Each feature declares the intermediate results 
+ * it is calculated from (decoded contour, convex hull, blob mask, moments). The extractor plans
+ * them once for the whole set: the moments are calculated once up to the highest order of any 
+ * feature and the decoded contour and the blob mask are kept while the features of a blob are 
+ * evaluated if more than one intermediate or feature reads them. The features are specified by 
+ * the method names of {@link Blob} (e.g. {@link Blob#GETPERIMETER}). Features with integer 
+ * parameters are given with their arguments, e.g. "getCentralMoments(2,0)" or "getHuMoments(1)"
+ * for the first invariant of Hu.
+ * @author Thorsten Wagner
+ */
+public class BlobFeatureExtractor {
+
+	/**
+	 * Intermediate results which several features have in common.
+	 */
+	private enum Intermediate {
+		/** The outer contour, read by the perimeter and by the convex hull */
+		CONTOUR,
+		/** The convex hull. The feret values and the minimum bounding rectangle are calculated from it. */
+		HULL,
+		/** The blob image */
+		MASK,
+		/** The raw and central moments, the second moments are shared by the eigenvalues and the ellipse */
+		MOMENTS
+	}
+
+	private enum Feature {
+		PERIMETER(Blob.GETPERIMETER, Intermediate.CONTOUR) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getPerimeter();
+			}
+		},
+		PERIMETER_CONVEX_HULL(Blob.GETPERIMETERCONVEXHULL, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getPerimeterConvexHull();
+			}
+		},
+		CONVEXITY(Blob.GETCONVEXITY, Intermediate.CONTOUR, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getConvexity();
+			}
+		},
+		SOLIDITY(Blob.GETSOLIDITY, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getSolidity();
+			}
+		},
+		ENCLOSED_AREA(Blob.GETENCLOSEDAREA) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getEnclosedArea();
+			}
+		},
+		AREA_CONVEX_HULL(Blob.GETAREACONVEXHULL, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getAreaConvexHull();
+			}
+		},
+		CIRCULARITY(Blob.GETCIRCULARITY, Intermediate.CONTOUR) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getCircularity();
+			}
+		},
+		THINNES_RATIO(Blob.GETTHINNESRATIO, Intermediate.CONTOUR) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getThinnesRatio();
+			}
+		},
+		AREA_TO_PERIMETER_RATIO(Blob.GETAREATOPERIMETERRATIO, Intermediate.CONTOUR) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getAreaToPerimeterRatio();
+			}
+		},
+		CONTOUR_TEMPERATURE(Blob.GETCONTOURTEMPERATURE, Intermediate.CONTOUR, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getContourTemperature();
+			}
+		},
+		FRACTAL_BOX_DIMENSION(Blob.GETFRACTALBOXDIMENSION, Intermediate.MASK) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getFractalBoxDimension();
+			}
+		},
+		DIAMETER_MAXIMUM_INSCRIBED_CIRCLE(Blob.GETDIAMETERMAXIMUMINSCRIBEDCIRCLE, Intermediate.MASK) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getDiamaterMaximumInscribedCircle();
+			}
+		},
+		NUMBER_OF_HOLES(Blob.GETNUMBEROFHOLES) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getNumberofHoles();
+			}
+		},
+		FERET_DIAMETER(Blob.GETFERETDIAMETER, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getFeretDiameter();
+			}
+		},
+		MIN_FERET_DIAMETER(Blob.GETMINFERETDIAMETER, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getMinFeretDiameter();
+			}
+		},
+		FERET_ANGLE(Blob.GETFERETANGLE, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getFeretAngle();
+			}
+		},
+		FERET_ORTHOGONAL_WIDTH(Blob.GETFERETORTHOGONALWIDTH, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getFeretOrthogonalWidth();
+			}
+		},
+		AREA_EQUIVALENT_SPHERICAL_DIAMETER(Blob.GETAREAEQUIVALENTSPHERICALDIAMETER) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getAreaEquivalentSphericalDiameter();
+			}
+		},
+		ORIENTATION_MAJOR_AXIS(Blob.GETORIENTATIONMAJORAXIS, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getOrientationMajorAxis();
+			}
+		},
+		ORIENTATION_MINOR_AXIS(Blob.GETORIENTATIONMINORAXIS, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getOrientationMinorAxis();
+			}
+		},
+		ELONGATION(Blob.GETELONGATION, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getElongation();
+			}
+		},
+		EIGENVALUE_MAJOR_AXIS(Blob.GETEIGENVALUEMAJORAXIS, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getEigenvalueMajorAxis();
+			}
+		},
+		EIGENVALUE_MINOR_AXIS(Blob.GETEIGENVALUEMINORAXIS, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getEigenvalueMinorAxis();
+			}
+		},
+		LONG_SIDE_MBR(Blob.GETLONGSIDEMBR, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getLongSideMBR();
+			}
+		},
+		SHORT_SIDE_MBR(Blob.GETSHORTSIDEMBR, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getShortSideMBR();
+			}
+		},
+		ASPECT_RATIO(Blob.GETASPECTRATIO, Intermediate.HULL) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getAspectRatio();
+			}
+		},
+		MOMENT("getMoment", 2, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getMoment(p, q);
+			}
+		},
+		CENTRAL_MOMENT("getCentralMoments", 2, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getCentralMoments(p, q);
+			}
+		},
+		NORMALIZED_CENTRAL_MOMENT("getNormalizedCentralMoment", 2, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getNormalizedCentralMoment(p, q);
+			}
+		},
+		HU_MOMENT("getHuMoments", 1, Intermediate.MOMENTS) {
+			double evaluate(Blob blob, int p, int q) {
+				return blob.getHuMoments()[p - 1];
+			}
+
+			int getMomentOrder(int p, int q) {
+				return 3;
+			}
+		};
+
+		final String name;
+		final int parameters;
+		final EnumSet<Intermediate> intermediates = EnumSet.noneOf(Intermediate.class);
+
+		Feature(String name, Intermediate... intermediates) {
+			this(name, 0, intermediates);
+		}
+
+		Feature(String name, int parameters, Intermediate... intermediates) {
+			this.name = name;
+			this.parameters = parameters;
+			for (Intermediate intermediate : intermediates) {
+				this.intermediates.add(intermediate);
+			}
+		}
+
+		abstract double evaluate(Blob blob, int p, int q);
+
+		/**
+		 * @return Highest order of the moments which are read by the feature
+		 */
+		int getMomentOrder(int p, int q) {
+			return parameters == 2 ? Math.max(p, q) : 2;
+		}
+	}
+
+	private static final Pattern CALL = Pattern.compile("(\\w+)\\(\\s*(\\d+)\\s*(?:,\\s*(\\d+)\\s*)?\\)");
+
+	private final String[] features;
+	private final Feature[] kinds;
+	private final int[] ps;
+	private final int[] qs;
+	private final boolean sharedContour;
+	private final boolean sharedMask;
+	private final int momentOrder;
+
+	/**
+	 * @param features Method names of the features (e.g. {@link Blob#GETENCLOSEDAREA})
+	 * @throws IllegalArgumentException if a feature is not supported
+	 */
+	public BlobFeatureExtractor(String... features) {
+		this.features = features.clone();
+		kinds = new Feature[features.length];
+		ps = new int[features.length];
+		qs = new int[features.length];
+		EnumSet<Intermediate> needed = EnumSet.noneOf(Intermediate.class);
+		int maskFeatures = 0;
+		int order = -1;
+		for (int i = 0; i < features.length; i++) {
+			parse(i, features[i]);
+			needed.addAll(kinds[i].intermediates);
+			if (kinds[i].intermediates.contains(Intermediate.MASK)) {
+				maskFeatures++;
+			}
+			if (kinds[i].intermediates.contains(Intermediate.MOMENTS)) {
+				order = Math.max(order, kinds[i].getMomentOrder(ps[i], qs[i]));
+			}
+		}
+		// The perimeter is cached by the blob, so the contour is read twice only if the hull is built as well
+		sharedContour = needed.contains(Intermediate.CONTOUR) && needed.contains(Intermediate.HULL);
+		sharedMask = maskFeatures > 1;
+		momentOrder = order;
+	}
+
+	private void parse(int i, String feature) {
+		String name = feature;
+		int arguments = 0;
+		Matcher m = CALL.matcher(feature);
+		if (m.matches()) {
+			name = m.group(1);
+			ps[i] = Integer.parseInt(m.group(2));
+			arguments = 1;
+			if (m.group(3) != null) {
+				qs[i] = Integer.parseInt(m.group(3));
+				arguments = 2;
+			}
+		}
+		for (Feature kind : Feature.values()) {
+			if (kind.name.equals(name) && kind.parameters == arguments) {
+				if (kind == Feature.HU_MOMENT && (ps[i] < 1 || ps[i] > 7)) {
+					throw new IllegalArgumentException("The invariants of Hu are numbered from 1 to 7: " + feature);
+				}
+				kinds[i] = kind;
+				return;
+			}
+		}
+		throw new IllegalArgumentException("The feature " + feature + " is not supported");
+	}
+
+	/**
+	 * @return The method names of the features in the order of the result vectors
+	 */
+	public String[] getFeatures() {
+		return features.clone();
+	}
+
+	/**
+	 * Calculates the features of a single blob.
+	 * @param blob The blob
+	 * @return The feature values in the order of {@link #getFeatures()}
+	 */
+	public double[] extract(Blob blob) {
+		double[] values = new double[kinds.length];
+		if (sharedContour) {
+			blob.retainContour();
+		}
+		if (sharedMask) {
+			blob.retainMask();
+		}
+		try {
+			if (momentOrder >= 0) {
+				blob.prepareMoments(momentOrder);
+			}
+			for (int i = 0; i < kinds.length; i++) {
+				values[i] = kinds[i].evaluate(blob, ps[i], qs[i]);
+			}
+		} finally {
+			if (sharedMask) {
+				blob.releaseMask();
+			}
+			if (sharedContour) {
+				blob.releaseContour();
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Calculates the features of all blobs.
+	 * @param blobs The blobs
+	 * @return One feature vector per blob, ordered like the blobs
+	 */
+	public double[][] extract(ManyBlobs blobs) {
+		double[][] values = new double[blobs.size()][];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = extract(blobs.get(i));
+		}
+		return values;
+	}
+}
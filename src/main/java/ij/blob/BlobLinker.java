@@ -0,0 +1,154 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Links the blobs of two consecutive frames by their overlap. The blobs of the next frame
+ * are painted into a label buffer (covering their bounding box) and the runs of the previous
+ * frame are looked up in it, so the overlap table is built in one pass over the pixels of 
+ * both frames. Splits and merges show up as several links of one blob. The linker keeps 
+ * its buffers between the calls and must not be used by several threads at once.
+ * @author Thorsten Wagner
+ */
+public class BlobLinker {
+
+	private int[] labels = new int[0];
+	private int[] counts = new int[0];
+	private int[] touched = new int[0];
+
+	/**
+	 * Correspondence between a blob of the previous and a blob of the next frame.
+	 */
+	public static class Link {
+		private Blob previous;
+		private Blob next;
+		private int overlap;
+
+		Link(Blob previous, Blob next, int overlap) {
+			this.previous = previous;
+			this.next = next;
+			this.overlap = overlap;
+		}
+
+		/**
+		 * @return The blob of the previous frame
+		 */
+		public Blob getPrevious() {
+			return previous;
+		}
+
+		/**
+		 * @return The blob of the next frame
+		 */
+		public Blob getNext() {
+			return next;
+		}
+
+		/**
+		 * @return Number of pixels which both blobs have in common
+		 */
+		public int getOverlap() {
+			return overlap;
+		}
+	}
+
+	/**
+	 * Links the blobs of two frames. Two blobs are linked if they have at least one pixel
+	 * in common. A blob of the previous frame with several links was split, a blob of the 
+	 * next frame with several links is a merge. Blobs without a link disappeared or appeared.
+	 * @param previous Blobs of the previous frame
+	 * @param next Blobs of the next frame
+	 * @return The links ordered like the blobs of the previous frame, the links of one blob 
+	 * ordered like the blobs of the next frame
+	 */
+	public List<Link> link(ManyBlobs previous, ManyBlobs next) {
+		ArrayList<Link> links = new ArrayList<Link>();
+		if (previous.isEmpty() || next.isEmpty()) {
+			return links;
+		}
+
+		// Bounding box of the next frame's blobs
+		int[][] nextRuns = new int[next.size()][];
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < next.size(); i++) {
+			int[] runs = next.get(i).getRuns();
+			nextRuns[i] = runs;
+			for (int k = 0; k < runs.length; k += 3) {
+				minY = Math.min(minY, runs[k]);
+				maxY = Math.max(maxY, runs[k]);
+				minX = Math.min(minX, runs[k + 1]);
+				maxX = Math.max(maxX, runs[k + 2]);
+			}
+		}
+		int width = maxX - minX + 1;
+		int height = maxY - minY + 1;
+		if (labels.length < width * height) {
+			labels = new int[width * height];
+		} else {
+			Arrays.fill(labels, 0, width * height, 0);
+		}
+		if (counts.length < next.size() + 1) {
+			counts = new int[next.size() + 1];
+			touched = new int[next.size()];
+		}
+
+		// Paint the next frame (index + 1 instead of the label, labels need not be unique)
+		for (int i = 0; i < next.size(); i++) {
+			int[] runs = nextRuns[i];
+			for (int k = 0; k < runs.length; k += 3) {
+				int offset = (runs[k] - minY) * width - minX;
+				Arrays.fill(labels, offset + runs[k + 1], offset + runs[k + 2] + 1, i + 1);
+			}
+		}
+
+		// Count the overlaps of each blob of the previous frame
+		for (Blob blob : previous) {
+			int[] runs = blob.getRuns();
+			int ntouched = 0;
+			for (int k = 0; k < runs.length; k += 3) {
+				int y = runs[k];
+				if (y < minY || y > maxY) {
+					continue;
+				}
+				int start = Math.max(runs[k + 1], minX);
+				int end = Math.min(runs[k + 2], maxX);
+				int offset = (y - minY) * width - minX;
+				for (int x = start; x <= end; x++) {
+					int j = labels[offset + x];
+					if (j != 0) {
+						if (counts[j] == 0) {
+							touched[ntouched++] = j;
+						}
+						counts[j]++;
+					}
+				}
+			}
+			Arrays.sort(touched, 0, ntouched);
+			for (int t = 0; t < ntouched; t++) {
+				int j = touched[t];
+				links.add(new Link(blob, next.get(j - 1), counts[j]));
+				counts[j] = 0;
+			}
+		}
+		return links;
+	}
+}
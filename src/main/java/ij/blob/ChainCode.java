@@ -0,0 +1,143 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+/**
+ * Compact contour: the start point and the freeman chain code of the steps, packed
+ * with three bits per step. The codes are the same as of {@link Blob#getOuterContourAsChainCode()}
+ * (0 = east, counterclockwise in steps of 45 degree, y pointing downwards).
+ * @author Thorsten Wagner
+ */
+final class ChainCode {
+
+	// Freeman code of the tracer directions, see ContourTracer.DX / DY
+	private static final int[] FREEMAN = { 0, 7, 6, 5, 4, 3, 2, 1 };
+	private static final int[] DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+	private static final int[] DY = { 0, -1, -1, -1, 0, 1, 1, 1 };
+
+	private int startX;
+	private int startY;
+	private final int length;
+	private final byte[] codes;
+	private Rectangle bounds = null;
+
+	/**
+	 * @param x x coordinate of the start point
+	 * @param y y coordinate of the start point
+	 * @param directions Tracer directions (see {@link ContourTracer#DX})
+	 * @param length Number of steps
+	 */
+	ChainCode(int x, int y, byte[] directions, int length) {
+		this.startX = x;
+		this.startY = y;
+		this.length = length;
+		codes = new byte[(3 * length + 7) >>> 3];
+		for (int i = 0; i < length; i++) {
+			int bit = 3 * i;
+			int code = FREEMAN[directions[i]] << (bit & 7);
+			codes[bit >>> 3] |= code;
+			if ((bit & 7) > 5) {
+				codes[(bit >>> 3) + 1] |= code >>> 8;
+			}
+		}
+	}
+
+	/**
+	 * @return The freeman code of step i
+	 */
+	int getCode(int i) {
+		int bit = 3 * i;
+		int index = bit >>> 3;
+		int value = codes[index] & 255;
+		if (index + 1 < codes.length) {
+			value |= (codes[index + 1] & 255) << 8;
+		}
+		return (value >>> (bit & 7)) & 7;
+	}
+
+	/**
+	 * @return Number of steps
+	 */
+	int length() {
+		return length;
+	}
+
+	void translate(int deltax, int deltay) {
+		startX += deltax;
+		startY += deltay;
+		if (bounds != null) {
+			bounds.translate(deltax, deltay);
+		}
+	}
+
+	/**
+	 * Walks the steps without decoding them into points.
+	 * @return The bounding rectangle of the contour points like {@link Polygon#getBounds()}
+	 */
+	Rectangle getBounds() {
+		if (bounds == null) {
+			int x = startX;
+			int y = startY;
+			int minX = x;
+			int maxX = x;
+			int minY = y;
+			int maxY = y;
+			for (int i = 0; i < length; i++) {
+				int code = getCode(i);
+				x += DX[code];
+				y += DY[code];
+				minX = Math.min(minX, x);
+				maxX = Math.max(maxX, x);
+				minY = Math.min(minY, y);
+				maxY = Math.max(maxY, y);
+			}
+			bounds = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+		}
+		return new Rectangle(bounds);
+	}
+
+	/**
+	 * @return The freeman codes of all steps
+	 */
+	int[] toArray() {
+		int[] result = new int[length];
+		for (int i = 0; i < length; i++) {
+			result[i] = getCode(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The contour points (start point, then one point per step)
+	 */
+	Polygon toPolygon() {
+		int[] xpoints = new int[length + 1];
+		int[] ypoints = new int[length + 1];
+		xpoints[0] = startX;
+		ypoints[0] = startY;
+		for (int i = 0; i < length; i++) {
+			int code = getCode(i);
+			xpoints[i + 1] = xpoints[i] + DX[code];
+			ypoints[i + 1] = ypoints[i] + DY[code];
+		}
+		return new Polygon(xpoints, ypoints, length + 1);
+	}
+}
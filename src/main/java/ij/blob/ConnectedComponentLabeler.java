@@ -17,21 +17,12 @@
 */
 package ij.blob;
 
-import ij.IJ;
 import ij.ImagePlus;
-import ij.Prefs;
-import ij.gui.Toolbar;
 import ij.measure.Calibration;
-import ij.plugin.CanvasResizer;
-import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 
-import java.awt.Color;
-import java.awt.Point;
-import java.awt.Polygon;
 import java.awt.Rectangle;
-import java.util.ArrayList;
 import java.util.Arrays;
 
 /**
@@ -41,41 +32,95 @@ import java.util.Arrays;
  */
 class ConnectedComponentLabeler {
 	
-	private ImagePlus imp;
-	private ImageProcessor labledImage;
-	private int NOLABEL = 0;
+	ImageProcessor ip;
+	Calibration cal;
+	int[] labels; //null for labelers which keep only the labels of the current row
+	long[] marks;
+	int width;
+	int height;
+	int NOLABEL = 0;
 	private int labelCount = 1;
-	private int BACKGROUND = 255;
-	private int OBJECT = 0;
-	private ManyBlobs allBlobs;
-	private boolean removeBorder = false;
-	private int offSetX = 0;
-	private int offsetY = 0;
-	/*
-	 * 
-	 * The read-order of the neighberhood of p.
-	 *
-	 * 5 * 6 * 7 
-	 * 4 * p * 0 
-	 * 3 * 2 * 1 
-	 */
-	int iterationorder[] = { 5, 4, 3, 6, 2, 7, 0, 1 };
+	int BACKGROUND = 255;
+	int OBJECT = 0;
+	ManyBlobs allBlobs;
+	boolean chainCodes = false;
+	private ContourTracer tracer;
+	private byte[] pixels;
+	private Blob[] blobsByLabel = new Blob[64];
 	
 	/**
 	 * @param allBlobs A ManyBlobs Object where the Blobs has to be stored
 	 * @param imp The image 
 	 */
 	public ConnectedComponentLabeler(ManyBlobs allBlobs, ImagePlus imp, int BACKGROUND, int OBJECT) {
-		this.allBlobs = allBlobs;
-		this.imp = imp;
+		this(allBlobs, imp.getProcessor(), imp.getCalibration(), BACKGROUND, OBJECT);
+	}
+	
+	/**
+	 * @param allBlobs A ManyBlobs Object where the Blobs has to be stored
+	 * @param ip The binary image
+	 * @param cal The calibration of the image
+	 */
+	public ConnectedComponentLabeler(ManyBlobs allBlobs, ImageProcessor ip, Calibration cal, int BACKGROUND, int OBJECT) {
 		this.BACKGROUND = BACKGROUND;
 		this.OBJECT = OBJECT;
-		
-
-		addWhiteBorder(imp);
-
-		labledImage = new ColorProcessor(this.imp.getWidth(), this.imp.getHeight());
-		
+		reset(allBlobs, ip, cal);
+	}
+	
+	/**
+	 * Used by labelers which do not read an ImageProcessor.
+	 * @param allBlobs A ManyBlobs Object where the Blobs has to be stored
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 * @param cal The calibration of the image
+	 */
+	ConnectedComponentLabeler(ManyBlobs allBlobs, int width, int height, Calibration cal) {
+		this(allBlobs, width, height, cal, true);
+	}
+	
+	/**
+	 * @param labelBuffer false if the labeler overrides the access to the labels and does not 
+	 * need a label buffer for the whole image
+	 * @see #ConnectedComponentLabeler(ManyBlobs, int, int, Calibration)
+	 */
+	ConnectedComponentLabeler(ManyBlobs allBlobs, int width, int height, Calibration cal, boolean labelBuffer) {
+		this.allBlobs = allBlobs;
+		this.cal = cal;
+		if (labelBuffer) {
+			allocate(width, height);
+		} else {
+			this.width = width;
+			this.height = height;
+			marks = new long[(width * height + 63) >>> 6];
+		}
+	}
+	
+	/**
+	 * Prepares the labeler for the next image. The label buffer and the mark bitmap
+	 * are reused if they are large enough.
+	 * @param allBlobs A ManyBlobs Object where the Blobs has to be stored
+	 * @param ip The binary image
+	 * @param cal The calibration of the image
+	 */
+	void reset(ManyBlobs allBlobs, ImageProcessor ip, Calibration cal) {
+		this.allBlobs = allBlobs;
+		this.ip = ip;
+		this.cal = cal;
+		allocate(ip.getWidth(), ip.getHeight());
+	}
+	
+	private void allocate(int width, int height) {
+		labelCount = 1;
+		this.width = width;
+		this.height = height;
+		int size = width * height;
+		if (labels == null || labels.length < size) {
+			labels = new int[size];
+			marks = new long[(size + 63) >>> 6];
+		} else {
+			Arrays.fill(labels, 0, size, NOLABEL);
+			Arrays.fill(marks, 0, (size + 63) >>> 6, 0L);
+		}
 	}
 	
 	/**
@@ -83,65 +128,150 @@ class ConnectedComponentLabeler {
 	 * @see  F. Chang, A linear-time component-labeling algorithm using contour tracing technique, Computer Vision and Image Understanding, vol. 93, no. 2, pp. 206-220, 2004.
 	 */
 	public void doConnectedComponents() {
-		
-		ImageProcessor ip = imp.getProcessor();
-		Calibration c = imp.getCalibration();
-
-		ByteProcessor proc = (ByteProcessor) ip;
-		byte[] pixels = (byte[]) proc.getPixels();
-		int w = proc.getWidth();
-		
-		Rectangle roi = ip.getRoi();
-		int value;
+		ContourTracer tracer = createTracer();
+		Rectangle roi = getScanRegion();
+		int w = width;
+		// The runs are only complete if the whole image is scanned
+		boolean recordRuns = roi.width == width && roi.height == height;
+		int runStart = -1;
 		for (int i = roi.y; i < roi.y + roi.height; ++i) {
+			startRow(i);
 			int offset = i * w;
-			for (int j = roi.x; j < roi.x + roi.width; ++j) {
-				value = pixels[offset + j] & 255;
-			
-				if (value == OBJECT) {
-					
-					if (isNewExternalContour(j, i, proc) && hasNoLabel(j, i)) {
-			
-						labledImage.set(j, i, labelCount);
-						Polygon outerContour = traceContour(j, i, proc,
-								labelCount, 1);
-						outerContour.translate(offSetX, offsetY);
-					
-						allBlobs.add(new Blob(outerContour, labelCount,c));
-						++labelCount;
+			int end = offset + roi.x + roi.width;
+			for (int index = nextObject(offset + roi.x, end); index < end; index = nextObject(index + 1, end)) {
+				int j = index - offset;
 
+				if ((i == 0 || !isObject(index - w)) && getLabel(index) == NOLABEL) {
+					
+					setLabel(index, labelCount);
+					Blob blob = traceBlob(tracer, j, i, labelCount);
+					allBlobs.add(blob);
+					if (labelCount == blobsByLabel.length) {
+						blobsByLabel = Arrays.copyOf(blobsByLabel, labelCount * 2);
 					}
-					if (isNewInternalContour(j, i, proc)) {
-						int label = labledImage.get(j, i);
-						if (hasNoLabel(j, i)) {
-							//printImage(labledImage);
-							label = labledImage.get(j-1, i);
-							labledImage.set(j, i, label);
+					blobsByLabel[labelCount] = blob;
+					++labelCount;
 
-						}
-						try{
-						Polygon innerContour = traceContour(j, i, proc, label,
-								2);
-						innerContour.translate(offSetX, offsetY);
-						getBlobByLabel(label).addInnerContour(innerContour);
-						}catch(Exception e){
-						  
-							IJ.log("x " + j + " y " +i + " label " + label);
-						}
+				}
+				// The pixels below the image belong to the surrounding background
+				if (i < height - 1 && !isObject(index + w) && !isMarked(index + w)) {
+					int label = getLabel(index);
+					if (label == NOLABEL) {
+						label = getLabel(index - 1);
+						setLabel(index, label);
 
-					} else if (hasNoLabel(j, i)) {
-					
-						int precedinglabel = labledImage.get(j - 1, i);
-						labledImage.set(j, i, precedinglabel);
 					}
+					traceHole(tracer, blobsByLabel[label], j, i, label);
 
+				} else if (getLabel(index) == NOLABEL) {
+				
+					setLabel(index, getLabel(index - 1));
 				}
+
+				if (recordRuns) {
+					if (runStart == -1) {
+						runStart = j;
+					}
+					if (j == width - 1 || !isObject(index + 1)) {
+						blobsByLabel[getLabel(index)].addRun(i, runStart, j);
+						runStart = -1;
+					}
+				}
+			}
+		}
+		if (recordRuns) {
+			for (int label = 1; label < labelCount; label++) {
+				blobsByLabel[label].trimRuns();
 			}
 		}
-		if(removeBorder){
-			removeBorder(imp);
+		// The blobs belong to the caller now
+		Arrays.fill(blobsByLabel, 0, labelCount, null);
+		//printImage(getLabledImage().getProcessor());
+	}
+	
+	/**
+	 * Creates the tracer for the pixels of the image. The tracer of the binary image is 
+	 * kept for the next image.
+	 */
+	ContourTracer createTracer() {
+		pixels = (byte[]) ip.getPixels();
+		if (tracer == null) {
+			tracer = new ContourTracer(pixels, labels, marks, width, height, OBJECT);
+		} else {
+			tracer.reset(pixels, labels, marks, width, height, OBJECT);
+		}
+		return tracer;
+	}
+	
+	/**
+	 * @return The rectangle which is scanned for blobs
+	 */
+	Rectangle getScanRegion() {
+		return ip.getRoi();
+	}
+	
+	/**
+	 * Called before row y is scanned. The scan reads and writes only the labels of this row.
+	 */
+	void startRow(int y) {
+	}
+	
+	/**
+	 * @param index Pixel index (y * width + x) in the current row
+	 * @return The label of the pixel or NOLABEL
+	 */
+	int getLabel(int index) {
+		return labels[index];
+	}
+	
+	/**
+	 * @param index Pixel index (y * width + x) in the current row
+	 */
+	void setLabel(int index, int label) {
+		labels[index] = label;
+	}
+	
+	/**
+	 * @param index Pixel index (y * width + x)
+	 * @return true if the pixel belongs to an object
+	 */
+	boolean isObject(int index) {
+		return (pixels[index] & 255) == OBJECT;
+	}
+	
+	/**
+	 * Searches the next object pixel of a row. Labelers which can skip the 
+	 * background faster than pixel by pixel override it.
+	 * @param index Pixel index where the search starts
+	 * @param end Pixel index behind the scanned part of the row
+	 * @return Index of the next object pixel or end
+	 */
+	int nextObject(int index, int end) {
+		while (index < end && !isObject(index)) {
+			index++;
+		}
+		return index;
+	}
+	
+	/**
+	 * Traces the outer contour of a new blob, as polygon or as chain code.
+	 */
+	Blob traceBlob(ContourTracer tracer, int x, int y, int label) {
+		if (chainCodes) {
+			return new Blob(tracer.traceChainCode(x, y, label, ContourTracer.EXTERNAL_CONTOUR), label, cal);
+		}
+		return new Blob(tracer.traceContour(x, y, label, ContourTracer.EXTERNAL_CONTOUR), label, cal);
+	}
+	
+	/**
+	 * Traces an inner contour and adds it to its blob.
+	 */
+	void traceHole(ContourTracer tracer, Blob blob, int x, int y, int label) {
+		if (chainCodes) {
+			blob.addInnerContour(tracer.traceChainCode(x, y, label, ContourTracer.INTERNAL_CONTOUR));
+		} else {
+			blob.addInnerContour(tracer.traceContour(x, y, label, ContourTracer.INTERNAL_CONTOUR));
 		}
-		//printImage(labledImage);
 	}
 	
 	@SuppressWarnings("unused")
@@ -166,243 +296,33 @@ class ConnectedComponentLabeler {
 		}
 	}
 
+	/**
+	 * Creates the labeled image from the label buffer. Background pixels which were 
+	 * visited while tracing a contour get the background value, all other pixels their label.
+	 * @return The labeled image
+	 */
 	public ImagePlus getLabledImage() {
-		ImagePlus img = new ImagePlus("Labeled", labledImage);
-		ColorProcessor proc = (ColorProcessor) img.getProcessor();
-		int[] pixels = (int[]) proc.getPixels();
-		int w = proc.getWidth();
-		int h = proc.getHeight();
-		int value;
-		for (int i = 0; i < h; ++i) {
-			int offset = i * w;
-			for (int j = 0; j < w; ++j) {
-				value = pixels[offset + j];
-				if(value==-1){
-					pixels[offset + j] = BACKGROUND;
-				}
-			}
-		}
-		if(removeBorder){
-			removeBorder(img);
-		}
-		return img;
-	}
-	
-	
-
-	private Polygon traceContour(int x, int y, ByteProcessor proc, int label,
-			int start) {
-
-		Polygon contour = new Polygon();
-		Point startPoint = new Point(x, y);
-		contour.addPoint(x, y);
-
-		Point nextPoint = nextPointOnContour(startPoint, proc, start);
-		
-		if (nextPoint.x == -1) {
-			// Point is isolated;
-			return contour;
-		}
-		Point T =  new Point(nextPoint.x,nextPoint.y);
-		boolean equalsStartpoint = false;
-		do {
-			contour.addPoint(nextPoint.x, nextPoint.y);
-			labledImage.set(nextPoint.x, nextPoint.y, label);
-			equalsStartpoint = nextPoint.equals(startPoint);
-			nextPoint = nextPointOnContour(nextPoint, proc, -1);
-		} while (!equalsStartpoint || !nextPoint.equals(T));
-
-		return contour;
+		ColorProcessor proc = new ColorProcessor(width, height);
+		getLabledImage(proc);
+		return new ImagePlus("Labeled", proc);
 	}
-
-	Point prevContourPoint;
-
-	// start = 1 -> External Contour
-	// start = 2 -> Internal Contour
-	private final Point nextPointOnContour(Point startPoint, ByteProcessor proc,
-			int start) {
-
-		/*
-		 ************
-		 *5 * 6 * 7 * 
-		 *4 * p * 0 * 
-		 *3 * 2 * 1 * 
-		 ************
-		 */
-		Point[] helpindexToPoint = new Point[8];
-
-		int[] neighbors = new int[8]; // neighbors of p
-		int x = startPoint.x;
-		int y = startPoint.y;
-
-		int I = 2;
-		int k = I - 1;
-		
-		int u = 0;
-		for (int i = 0; i < 3; i++) {
-			for (int j = 0; j < 3; j++) {
-				int window_x = (x - k + i);
-				int window_y = (y - k + j);
-				if (window_x != x || window_y != y) {
-					neighbors[iterationorder[u]] = proc.get(window_x, window_y);
-					helpindexToPoint[iterationorder[u]] = new Point(window_x,
-							window_y);
-					u++;
-				}
-			}
-		}
-		ArrayList<Point> indexToPoint = new ArrayList<Point>(
-				Arrays.asList(helpindexToPoint));
-
-		final int NOSTARTPOINT = -1;
-		final int STARTEXTERNALCONTOUR = 1;
-		final int STARTINTERNALCONTOUR = 2;
-
-		switch (start) {
-		case NOSTARTPOINT:
-			int prevContourPointIndex = indexToPoint.indexOf(prevContourPoint);
-			start = (prevContourPointIndex + 2) % 8;
-			break;
-		case STARTEXTERNALCONTOUR:
-			start = 7;
-			break;
-		case STARTINTERNALCONTOUR:
-			start = 3;
 	
-			break;
-		}
-
-		int counter = start;
-		int pos = -2;
-
-		Point returnPoint = null;
-		while (pos != start) {
-			pos = counter % 8;
-			if (neighbors[pos] == OBJECT) {
-				prevContourPoint = startPoint;
-				returnPoint = indexToPoint.get(pos);
-				return returnPoint;
-			}
-			Point p = indexToPoint.get(pos);
-			if (neighbors[pos] == BACKGROUND) {
-				try {
-					labledImage.set(p.x, p.y, -1);
-				} catch (Exception e) {
-					IJ.log("x " + p.x + " y " + p.y);
-				}
-			}
-
-			counter++;
-			pos = counter % 8;
-		}
-		
-		Point isIsolated = new Point(-1, -1);
-		return isIsolated;
-	}
-
-	private boolean isNewExternalContour(int x, int y, ByteProcessor proc) {
-		return isBackground(x, y - 1, proc);
-	}
-	
-	private boolean hasNoLabel(int x, int y) {
-		int label = labledImage.get(x, y);
-		return label == NOLABEL;
-	}
-
-	private boolean isMarked(int x, int y) {
-		return labledImage.get(x, y) == -1;
-	}
-
-	private boolean isBackground(int x, int y, ByteProcessor proc) {
-		return (proc.get(x, y) == BACKGROUND);
-	}
-
-	private boolean isNewInternalContour(int x, int y, ByteProcessor proc) {
-		return isBackground(x, y + 1, proc) && !isMarked(x, y + 1);
-	}
-	
-	private Blob getBlobByLabel(int label) {
-		for (int i = 0; i < allBlobs.size(); i++) {
-			if (allBlobs.get(i).getLabel() == label) {
-				return allBlobs.get(i);
+	/**
+	 * Writes the labeled image into an existing image of the same size.
+	 * @param proc The target image
+	 */
+	void getLabledImage(ColorProcessor proc) {
+		int[] pixels = (int[]) proc.getPixels();
+		for (int i = 0; i < pixels.length; ++i) {
+			int label = labels[i];
+			if (label == NOLABEL && isMarked(i)) {
+				label = BACKGROUND;
 			}
+			pixels[i] = label;
 		}
-		return null;
 	}
-	
-	private void addWhiteBorder(ImagePlus img) {
-		offSetX=0;
-		offsetY=0;
-		boolean hasWhiteBorder = true;
-		ImageProcessor oldip = img.getProcessor();
-		ByteProcessor oldproc = (ByteProcessor) oldip;
-		byte[] pixels = (byte[]) oldproc.getPixels();
-		int w = oldproc.getWidth();
-		for (int i = 0; i < oldproc.getHeight(); i++) {
-			
-			int offset = i * w;
-			//First and last Scanrow
-			if (i == 0 || i == oldproc.getHeight()-1) {
 
-				for (int j = 0; j < oldproc.getWidth(); j++) {
-					int value = pixels[offset + j] & 255;
-					if (value == OBJECT) {
-						hasWhiteBorder = false;
-					}
-				}
-			}
-			// First and last Pixel per scan row
-			int firstvalue = pixels[offset + 0] & 255;
-			int lastvalue = pixels[offset + oldproc.getWidth() - 1] & 255;
-			if (firstvalue == OBJECT || lastvalue == OBJECT) {
-				hasWhiteBorder = false;
-			}
-
-			if (!hasWhiteBorder) {
-				i = oldproc.getHeight(); // Stop searching
-			}
-		}
-		//hasWhiteBorder=false;
-		if (!hasWhiteBorder) 
-		{
-			offSetX=-1;
-			offsetY=-1;
-			removeBorder=true;
-			CanvasResizer resizer = new CanvasResizer();
-			Color oldbg = Toolbar.getBackgroundColor();
-			Prefs.set("resizer.zero", false);
-
-			if(BACKGROUND==255){
-				Color bgcolor = (img.isInvertedLut()) ? Color.BLACK : Color.WHITE;
-				Toolbar.setBackgroundColor(bgcolor);
-
-				
-			}else{
-				Color bgcolor = (img.isInvertedLut()) ? Color.WHITE : Color.BLACK;
-				Toolbar.setBackgroundColor(bgcolor);
-			}
-
-			img.setProcessor(resizer.expandImage(img.getProcessor(), img.getWidth()+2, img.getHeight()+2, 1, 1));
-			Toolbar.setBackgroundColor(oldbg);
-		} else
-		{
-			imp = img;
-		}
+	boolean isMarked(int index) {
+		return (marks[index >>> 6] & (1L << index)) != 0;
 	}
-	
-	public void removeBorder(ImagePlus img) {
-		CanvasResizer resizer = new CanvasResizer();
-/*
-		if(BACKGROUND==255){
-			Color bgcolor = (img.isInvertedLut()) ? Color.BLACK : Color.WHITE;
-			Toolbar.setBackgroundColor(bgcolor);
-		}else{
-			Color bgcolor = (img.isInvertedLut()) ? Color.WHITE : Color.BLACK;
-			Toolbar.setBackgroundColor(bgcolor);
-		}
-	*/
-		img.setProcessor(resizer.expandImage(img.getProcessor(), img.getWidth()-2, img.getHeight()-2, -1, -1));
-	}
-	
-
 }
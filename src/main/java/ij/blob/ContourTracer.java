@@ -0,0 +1,301 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.process.ImageProcessor;
+
+import java.awt.Polygon;
+
+/**
+ * Traces the contours for the {@link ConnectedComponentLabeler}. Points are
+ * addressed by their packed pixel index (y * width + x) and the neighbourhood
+ * is walked with direction lookup tables, so tracing a contour does not allocate
+ * anything but the resulting polygon.
+ * Subclasses which do not read the pixels from an image override the object test, 
+ * the marking and the labeling of the points (see {@link RunContourTracer}).
+ * @author Thorsten Wagner
+ */
+class ContourTracer {
+
+	static final int EXTERNAL_CONTOUR = 1;
+	static final int INTERNAL_CONTOUR = 2;
+
+	/*
+	 * Direction codes of the neighbourhood of p
+	 *
+	 * 5 * 6 * 7
+	 * 4 * p * 0
+	 * 3 * 2 * 1
+	 */
+	static final int[] DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+	static final int[] DY = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+	private final int[] offsets = new int[8];
+	private byte[] pixels;
+	private long[] bits;
+	private int wordsPerRow;
+	private ImageProcessor source;
+	private float lower;
+	private float upper;
+	private int[] labels;
+	private long[] marks;
+	private int width;
+	private int height;
+	private int OBJECT;
+
+	private int[] markLog;
+	private int nmarks;
+
+	private int[] xpoints = new int[64];
+	private int[] ypoints = new int[64];
+	private int npoints;
+
+	private byte[] directions = new byte[64];
+	private int ndirections;
+
+	/**
+	 * @param pixels Pixels of the binary image
+	 * @param labels Label buffer of the same size as the image
+	 * @param marks Bitmap (one bit per pixel) in which the visited background pixels are marked.
+	 * If it is null, the marks are collected and have to be written with {@link #flushMarks(long[])}.
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 * @param OBJECT Pixel value of the objects
+	 */
+	ContourTracer(byte[] pixels, int[] labels, long[] marks, int width, int height, int OBJECT) {
+		reset(pixels, labels, marks, width, height, OBJECT);
+	}
+
+	/**
+	 * Prepares the tracer for the next image. The scratch arrays are kept.
+	 * @see #ContourTracer(byte[], int[], long[], int, int, int)
+	 */
+	void reset(byte[] pixels, int[] labels, long[] marks, int width, int height, int OBJECT) {
+		this.pixels = pixels;
+		this.labels = labels;
+		this.marks = marks;
+		this.width = width;
+		this.height = height;
+		this.OBJECT = OBJECT;
+		if (marks == null && markLog == null) {
+			markLog = new int[64];
+		}
+		nmarks = 0;
+		for (int d = 0; d < 8; d++) {
+			offsets[d] = DX[d] + DY[d] * width;
+		}
+	}
+
+	/**
+	 * Creates a tracer for a bit-packed image (see {@link PackedBinaryImage}).
+	 * @param bits Packed rows, a set bit is an object pixel
+	 * @param wordsPerRow Number of words of each row
+	 * @param labels Label buffer of the same size as the image
+	 * @param marks Bitmap (one bit per pixel) in which the visited background pixels are marked
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 */
+	ContourTracer(long[] bits, int wordsPerRow, int[] labels, long[] marks, int width, int height) {
+		this(null, labels, marks, width, height, 0);
+		this.bits = bits;
+		this.wordsPerRow = wordsPerRow;
+	}
+
+	/**
+	 * Creates a tracer which thresholds the image on the fly. Pixels with a value
+	 * in [lower, upper] are object pixels.
+	 * @param source Image of any type
+	 * @param lower Lower threshold
+	 * @param upper Upper threshold
+	 * @param labels Label buffer of the same size as the image
+	 * @param marks Bitmap (one bit per pixel) in which the visited background pixels are marked
+	 */
+	ContourTracer(ImageProcessor source, float lower, float upper, int[] labels, long[] marks) {
+		this(null, labels, marks, source.getWidth(), source.getHeight(), 0);
+		this.source = source;
+		this.lower = lower;
+		this.upper = upper;
+	}
+
+	/**
+	 * Traces the contour which starts at (x,y) and labels all of its points.
+	 * @param x x coordinate of the start point
+	 * @param y y coordinate of the start point
+	 * @param label Label of the contour points
+	 * @param start {@link #EXTERNAL_CONTOUR} or {@link #INTERNAL_CONTOUR}
+	 * @return The closed contour. Isolated points are returned as single point polygon.
+	 */
+	Polygon traceContour(int x, int y, int label, int start) {
+		trace(x, y, label, start, false);
+		return new Polygon(xpoints, ypoints, npoints);
+	}
+
+	/**
+	 * Traces the contour like {@link #traceContour(int, int, int, int)}, but only records the
+	 * directions of the steps.
+	 * @return The closed contour as chain code
+	 */
+	ChainCode traceChainCode(int x, int y, int label, int start) {
+		trace(x, y, label, start, true);
+		return new ChainCode(x, y, directions, ndirections);
+	}
+
+	private void trace(int x, int y, int label, int start, boolean chainCode) {
+		npoints = 0;
+		ndirections = 0;
+		if (!chainCode) {
+			addPoint(x, y);
+		}
+
+		int startIndex = y * width + x;
+		int dir = nextDirection(startIndex, x, y, start == EXTERNAL_CONTOUR ? 7 : 3);
+		if (dir == -1) {
+			// Point is isolated;
+			return;
+		}
+		// The end is detected on the coordinates, the index may overflow for images which are 
+		// only streamed (see RunContourTracer)
+		int startX = x;
+		int startY = y;
+		int secondX = x + DX[dir];
+		int secondY = y + DY[dir];
+		int index = startIndex;
+		boolean equalsStartpoint;
+		do {
+			index += offsets[dir];
+			x += DX[dir];
+			y += DY[dir];
+			if (chainCode) {
+				addDirection(dir);
+			} else {
+				addPoint(x, y);
+			}
+			setLabel(index, x, y, label);
+			equalsStartpoint = x == startX && y == startY;
+			// The search starts two steps clockwise of the previous contour point
+			dir = nextDirection(index, x, y, (dir + 6) & 7);
+		} while (!equalsStartpoint || x + DX[dir] != secondX || y + DY[dir] != secondY);
+	}
+
+	/**
+	 * Searches clockwise for the next contour point and marks the visited background pixels.
+	 * Neighbours outside of the image are treated as background.
+	 * @return Direction code of the next contour point or -1 if the point is isolated.
+	 */
+	private int nextDirection(int index, int x, int y, int start) {
+		boolean inside = x > 0 && y > 0 && x < width - 1 && y < height - 1;
+		for (int i = 0; i < 8; i++) {
+			int dir = (start + i) & 7;
+			if (!inside) {
+				int nx = x + DX[dir];
+				int ny = y + DY[dir];
+				if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+					continue;
+				}
+			}
+			int neighbour = index + offsets[dir];
+			int nx = x + DX[dir];
+			int ny = y + DY[dir];
+			if (isObject(neighbour, nx, ny)) {
+				return dir;
+			}
+			mark(neighbour, nx, ny);
+		}
+		return -1;
+	}
+
+	/**
+	 * @param index Pixel index of the point (y * width + x)
+	 * @return true if the point (inside of the image) is an object pixel
+	 */
+	boolean isObject(int index, int x, int y) {
+		if (pixels != null) {
+			return (pixels[index] & 255) == OBJECT;
+		}
+		if (source != null) {
+			float value = source.getf(index);
+			return value >= lower && value <= upper;
+		}
+		return (bits[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Marks a visited background pixel.
+	 * @param index Pixel index of the point (y * width + x)
+	 */
+	void mark(int index, int x, int y) {
+		if (marks != null) {
+			marks[index >>> 6] |= 1L << index;
+		} else {
+			logMark(index);
+		}
+	}
+
+	/**
+	 * Labels a contour point.
+	 * @param index Pixel index of the point (y * width + x)
+	 */
+	void setLabel(int index, int x, int y, int label) {
+		labels[index] = label;
+	}
+
+	private void logMark(int index) {
+		if (nmarks == markLog.length) {
+			int[] help = new int[nmarks * 2];
+			System.arraycopy(markLog, 0, help, 0, nmarks);
+			markLog = help;
+		}
+		markLog[nmarks++] = index;
+	}
+
+	/**
+	 * Writes the collected marks into a bitmap. Used when several tracers
+	 * work concurrently on the same image.
+	 * @param target Bitmap (one bit per pixel)
+	 */
+	void flushMarks(long[] target) {
+		for (int i = 0; i < nmarks; i++) {
+			int index = markLog[i];
+			target[index >>> 6] |= 1L << index;
+		}
+		nmarks = 0;
+	}
+
+	private void addDirection(int dir) {
+		if (ndirections == directions.length) {
+			byte[] help = new byte[ndirections * 2];
+			System.arraycopy(directions, 0, help, 0, ndirections);
+			directions = help;
+		}
+		directions[ndirections++] = (byte) dir;
+	}
+
+	private void addPoint(int x, int y) {
+		if (npoints == xpoints.length) {
+			int[] help = new int[npoints * 2];
+			System.arraycopy(xpoints, 0, help, 0, npoints);
+			xpoints = help;
+			help = new int[npoints * 2];
+			System.arraycopy(ypoints, 0, help, 0, npoints);
+			ypoints = help;
+		}
+		xpoints[npoints] = x;
+		ypoints[npoints] = y;
+		npoints++;
+	}
+}
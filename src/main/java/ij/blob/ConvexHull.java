@@ -0,0 +1,215 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.measure.Calibration;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Convex hull of a contour. The left- and rightmost points of each row of the contour are 
+ * already ordered by y, so the hull is built with the monotone chain algorithm in linear time 
+ * (no sorting). Melkman's algorithm is not used since the traced contours of thin parts pass 
+ * pixels several times and are therefore not simple polygons. Arbitrary point sets, whose 
+ * bounding box can be much larger than the number of points, are sorted instead (see 
+ * {@link #of(int[], int[], int)}).
+ * The hull is closed (the last point equals the first), starts at the leftmost point of the top 
+ * row and has no collinear points.
+ * @author Thorsten Wagner
+ */
+final class ConvexHull {
+
+	final int[] xpoints;
+	final int[] ypoints;
+	final int npoints;
+
+	private ConvexHull(int[] xpoints, int[] ypoints, int npoints) {
+		this.xpoints = xpoints;
+		this.ypoints = ypoints;
+		this.npoints = npoints;
+	}
+
+	/**
+	 * @param contour Outer contour of a blob. Rows of the bounding box without a contour point 
+	 * (e.g. between the vertices of a polygon) are skipped.
+	 * @return The convex hull of the contour points
+	 */
+	static ConvexHull of(Polygon contour) {
+		Rectangle r = contour.getBounds();
+		int h = r.height + 1;
+		int[] minx = new int[h];
+		int[] maxx = new int[h];
+		Arrays.fill(minx, Integer.MAX_VALUE);
+		Arrays.fill(maxx, Integer.MIN_VALUE);
+		for (int i = 0; i < contour.npoints; i++) {
+			int y = contour.ypoints[i] - r.y;
+			int x = contour.xpoints[i];
+			if (x < minx[y]) {
+				minx[y] = x;
+			}
+			if (x > maxx[y]) {
+				maxx[y] = x;
+			}
+		}
+
+		int[] hx = new int[2 * h + 2];
+		int[] hy = new int[2 * h + 2];
+		hx[0] = minx[0];
+		hy[0] = r.y;
+		int k = 1;
+		// Right chain downwards
+		for (int y = 0; y < h; y++) {
+			if (maxx[y] != Integer.MIN_VALUE) {
+				k = push(hx, hy, k, 1, maxx[y], y + r.y);
+			}
+		}
+		// Left chain upwards
+		int chainStart = k;
+		for (int y = h - 1; y >= 0; y--) {
+			if (minx[y] != Integer.MAX_VALUE) {
+				k = push(hx, hy, k, chainStart, minx[y], y + r.y);
+			}
+		}
+		return close(hx, hy, k);
+	}
+
+	/**
+	 * Builds the hull of an arbitrary point set. The points are sorted by y and x, so the memory 
+	 * does not depend on the extent of the points.
+	 * @param xs x coordinates of the points
+	 * @param ys y coordinates of the points
+	 * @param n Number of points, at least one
+	 * @return The convex hull of the points
+	 */
+	static ConvexHull of(int[] xs, int[] ys, int n) {
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = ((long) ys[i] << 32) | ((long) xs[i] - Integer.MIN_VALUE);
+		}
+		Arrays.sort(keys);
+
+		int[] hx = new int[2 * n + 2];
+		int[] hy = new int[2 * n + 2];
+		hx[0] = keyX(keys[0]);
+		hy[0] = keyY(keys[0]);
+		int k = 1;
+		for (int i = 0; i < n; i++) {
+			k = push(hx, hy, k, 1, keyX(keys[i]), keyY(keys[i]));
+		}
+		int chainStart = k;
+		for (int i = n - 1; i >= 0; i--) {
+			k = push(hx, hy, k, chainStart, keyX(keys[i]), keyY(keys[i]));
+		}
+		return close(hx, hy, k);
+	}
+
+	private static int keyX(long key) {
+		return (int) ((key & 0xFFFFFFFFL) + Integer.MIN_VALUE);
+	}
+
+	private static int keyY(long key) {
+		return (int) (key >> 32);
+	}
+
+	private static ConvexHull close(int[] hx, int[] hy, int k) {
+		if (k == 1 || hx[k - 1] != hx[0] || hy[k - 1] != hy[0]) {
+			hx[k] = hx[0];
+			hy[k] = hy[0];
+			k++;
+		}
+		return new ConvexHull(hx, hy, k);
+	}
+
+	/**
+	 * Appends a point to the chain and removes the preceding points which are not strictly convex.
+	 * @param chainStart The points before this index are not removed
+	 * @return The new number of points
+	 */
+	private static int push(int[] hx, int[] hy, int k, int chainStart, int x, int y) {
+		if (x == hx[k - 1] && y == hy[k - 1]) {
+			return k;
+		}
+		while (k > chainStart && k >= 2 && cross(hx[k - 2], hy[k - 2], hx[k - 1], hy[k - 1], x, y) <= 0) {
+			k--;
+		}
+		hx[k] = x;
+		hy[k] = y;
+		return k + 1;
+	}
+
+	private static long cross(int ax, int ay, int bx, int by, int cx, int cy) {
+		return ((long) bx - ax) * ((long) cy - ay) - ((long) by - ay) * ((long) cx - ax);
+	}
+
+	/**
+	 * @return The number of hull vertices (without the closing point)
+	 */
+	int getVertexCount() {
+		return npoints - 1;
+	}
+
+	Polygon toPolygon() {
+		return new Polygon(xpoints.clone(), ypoints.clone(), npoints);
+	}
+
+	/**
+	 * @return The calibrated length of the hull
+	 */
+	double getPerimeter(Calibration cal) {
+		double perimeter = 0;
+		for (int i = 1; i < npoints; i++) {
+			double dx = (xpoints[i] - xpoints[i - 1]) * cal.pixelWidth;
+			double dy = (ypoints[i] - ypoints[i - 1]) * cal.pixelHeight;
+			perimeter += Math.sqrt(dx * dx + dy * dy);
+		}
+		return perimeter;
+	}
+
+	/**
+	 * Counts the pixels inside of the hull and on its border by Pick's theorem: 
+	 * area + border points / 2 + 1
+	 * @return The number of pixels covered by the hull
+	 */
+	long getPixelCount() {
+		long doubleArea = 0;
+		long border = 0;
+		for (int i = 1; i < npoints; i++) {
+			doubleArea += (long) xpoints[i - 1] * ypoints[i] - (long) xpoints[i] * ypoints[i - 1];
+			border += gcd(Math.abs(xpoints[i] - xpoints[i - 1]), Math.abs(ypoints[i] - ypoints[i - 1]));
+		}
+		return (Math.abs(doubleArea) + border) / 2 + 1;
+	}
+
+	private static int gcd(int a, int b) {
+		while (b != 0) {
+			int t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	void translate(int deltax, int deltay) {
+		for (int i = 0; i < npoints; i++) {
+			xpoints[i] += deltax;
+			ypoints[i] += deltay;
+		}
+	}
+}
@@ -6,10 +6,14 @@ package ij.blob;
  */
 public abstract class CustomBlobFeature {
 
-	private Blob blob;
+	private ThreadLocal<Blob> blob = new ThreadLocal<Blob>(); //The same feature may be evaluated by several threads
 	
 	void setup(Blob blob){
-		this.blob = blob;
+		this.blob.set(blob);
+	}
+	
+	void release(){
+		this.blob.remove();
 	}
 	
 	/**
@@ -17,6 +21,6 @@ public abstract class CustomBlobFeature {
 	 * @return The reference to the blob
 	 */
 	public Blob getBlob(){
-		return blob;
+		return blob.get();
 	}	
 }
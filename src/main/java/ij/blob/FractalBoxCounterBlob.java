@@ -31,8 +31,7 @@ the smallest number of pixels). Now it works fine for sets with D near to 2.0
 
 */
 class FractalBoxCounterBlob {
-	static String sizes = "2,3,4,6,8,12,16,32,64";
-	static boolean blackBackground;
+	static final String sizes = "2,3,4,6,8,12,16,32,64";
 	int[] boxSizes;
 	float[] boxCountSums;
 	int maxBoxSize;
@@ -58,7 +57,7 @@ class FractalBoxCounterBlob {
 		ImageProcessor ip = help.getProcessor();
 		blob.draw(ip, Blob.DRAW_HOLES, -r.x, -r.y);
 		*/
-		ImagePlus blobImage = Blob.generateBlobImage(blob);
+		ImagePlus blobImage = blob.getBlobMask();
 		ImageProcessor ip = blobImage.getProcessor();
 		imp = new ImagePlus("abc",ip);
 		boxCountSums = new float[boxSizes.length];
@@ -71,14 +70,14 @@ class FractalBoxCounterBlob {
 	}
 
 	/** Breaks the specified string into an array
-	 of ints. Returns null if there is an error.*/
+	 of ints. Throws an IllegalArgumentException if a size is not a number.*/
 	public int[] s2ints(String s) {
 		StringTokenizer st = new StringTokenizer(s, ", \t");
 		int nInts = st.countTokens();
 		int[] ints = new int[nInts];
 		for(int i=0; i<nInts; i++) {
 			try {ints[i] = Integer.parseInt(st.nextToken());}
-			catch (NumberFormatException e) {IJ.log(""+e); return null;}
+			catch (NumberFormatException e) {throw new IllegalArgumentException("Invalid box sizes: " + s, e);}
 		}
 		return ints;
 	}
@@ -92,7 +91,6 @@ class FractalBoxCounterBlob {
 	}
 
 	boolean FindMargins(ImageProcessor ip) {
-		if (IJ.debugMode) IJ.log("FindMargins");
 		int[] histogram = new int[256];
 		int width = imp.getWidth();
 		int height = imp.getHeight();
@@ -103,8 +101,7 @@ class FractalBoxCounterBlob {
 		do {
 			left++;
 			if (left>=width) {
-				IJ.error("No non-backround pixels found.");
-				return false;
+				throw new IllegalArgumentException("No non-backround pixels found.");
 			}
 			ip.setRoi(left, 0, 1, height);
 			histogram = ip.getHistogram();
@@ -0,0 +1,97 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.ImagePlus;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Labels a sequence of binary images (e.g. the frames of a camera stream) with one labeler.
+ * The label buffer, the mark bitmap, the contour scratch arrays and the labeled image are 
+ * kept between the frames and only cleared, so for frames of the same size only the blobs
+ * themselves are allocated. A session must not be used by several threads at once.
+ * @author Thorsten Wagner
+ */
+public class LabelingSession {
+
+	private ConnectedComponentLabeler labeler = null;
+	private ImagePlus labeledImage = null;
+	private int BACKGROUND = 255;
+	private int OBJECT = 0;
+	private boolean chainCodes = false;
+
+	/**
+	 * Sets the background of the following frames.
+	 * @param val 0 or 1 (black/white respectively)
+	 * @see ManyBlobs#setBackground(int)
+	 */
+	public void setBackground(int val) {
+		OBJECT = ManyBlobs.getObjectValue(val);
+		BACKGROUND = 255 - OBJECT;
+	}
+
+	/**
+	 * @param chainCodes true to store the contours as chain code
+	 * @see ManyBlobs#setChainCodeContours(boolean)
+	 */
+	public void setChainCodeContours(boolean chainCodes) {
+		this.chainCodes = chainCodes;
+	}
+
+	/**
+	 * Labels the next frame.
+	 * @param imp Binary 8-bit image
+	 * @return The blobs of the frame
+	 */
+	public ManyBlobs findConnectedComponents(ImagePlus imp) {
+		return findConnectedComponents(imp.getProcessor(), imp.getCalibration());
+	}
+
+	/**
+	 * Labels the next frame. The labeled image of the returned blobs is reused 
+	 * and overwritten by the next frame of the same size.
+	 * @param ip Binary 8-bit image (only the object and the background value)
+	 * @param cal Calibration of the frame
+	 * @return The blobs of the frame
+	 */
+	public ManyBlobs findConnectedComponents(ImageProcessor ip, Calibration cal) {
+		if (!(ip instanceof ByteProcessor)) {
+			throw new IllegalArgumentException("Wrong Image Format. IJ Blob only supports 8-bit, single-channel binary images");
+		}
+		ManyBlobs blobs = new ManyBlobs();
+		if (labeler == null) {
+			labeler = new ConnectedComponentLabeler(blobs, ip, cal, BACKGROUND, OBJECT);
+		} else {
+			labeler.BACKGROUND = BACKGROUND;
+			labeler.OBJECT = OBJECT;
+			labeler.reset(blobs, ip, cal);
+		}
+		labeler.chainCodes = chainCodes;
+		labeler.doConnectedComponents();
+
+		if (labeledImage == null || labeledImage.getWidth() != ip.getWidth() || labeledImage.getHeight() != ip.getHeight()) {
+			labeledImage = new ImagePlus("Labeled", new ColorProcessor(ip.getWidth(), ip.getHeight()));
+		}
+		labeler.getLabledImage((ColorProcessor) labeledImage.getProcessor());
+		blobs.setLabeledImage(labeledImage);
+		return blobs;
+	}
+}
@@ -18,17 +18,34 @@ TABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
 */
 
 package ij.blob;
-import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.gui.NewImage;
+import ij.gui.Roi;
+import ij.measure.Calibration;
+import ij.plugin.filter.EDM;
+import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
 import ij.process.ImageStatistics;
 
 import java.awt.Color;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 
 /*
  * This library extracts connected components . For this purpose it uses the
@@ -49,9 +66,16 @@ public class ManyBlobs extends ArrayList<Blob> {
 	 */
 	private static final long serialVersionUID = 1L;
 	private ImagePlus binaryImage = null;
+	private PackedBinaryImage packedImage = null;
+	private boolean thresholded = false;
+	private boolean chainCodes = false;
+	private float lowerThreshold; //Pixels are compared as float, like getf returns them
+	private float upperThreshold;
 	private ImagePlus labeledImage = null;
+	private ConnectedComponentLabeler labeledImageSource = null; //Creates the labeled image of a bit-packed image on the first request
 	private int BACKGROUND = 255;
 	private int OBJECT = 0;
+	private ConcurrentHashMap<Integer, Blob> labelTable = new ConcurrentHashMap<Integer, Blob>(); //getBlobByLabel may update it while other threads read
 
 	public ManyBlobs() {
 
@@ -64,6 +88,47 @@ public class ManyBlobs extends ArrayList<Blob> {
 		setImage(binaryImage);
 	}
 	
+	/**
+	 * The image is thresholded while it is labeled, no binary copy is made. 
+	 * Pixels with a value in [lowerThreshold, upperThreshold] are objects. The thresholds are 
+	 * rounded to float once, so every labeling of the image compares the same values.
+	 * @param imp 8-bit, 16-bit or 32-bit single-channel image
+	 * @param lowerThreshold Lower threshold (inclusive)
+	 * @param upperThreshold Upper threshold (inclusive)
+	 */
+	public ManyBlobs(ImagePlus imp, double lowerThreshold, double upperThreshold) {
+		if (imp.getNChannels()>1 || imp.getBitDepth()==24) {
+			throw new java.lang.IllegalArgumentException("Wrong Image Format. IJ Blob only supports single-channel grayscale images");
+		}
+		this.binaryImage = imp;
+		this.thresholded = true;
+		this.lowerThreshold = (float) lowerThreshold;
+		this.upperThreshold = (float) upperThreshold;
+	}
+	
+	/**
+	 * Labels a bit-packed image. The labeling needs no label buffer for the whole image, only 
+	 * one bit per pixel besides the blobs. The labeled image (one int per pixel) is created 
+	 * when it is requested first.
+	 * @param packedImage Binary image with one bit per pixel. Set bits are objects.
+	 */
+	public ManyBlobs(PackedBinaryImage packedImage) {
+		this.packedImage = packedImage;
+	}
+	
+	/**
+	 * A slice of a validated stack with the settings of another object.
+	 */
+	private ManyBlobs(ImagePlus slice, ManyBlobs settings) {
+		this.binaryImage = slice;
+		this.thresholded = settings.thresholded;
+		this.lowerThreshold = settings.lowerThreshold;
+		this.upperThreshold = settings.upperThreshold;
+		this.chainCodes = settings.chainCodes;
+		this.BACKGROUND = settings.BACKGROUND;
+		this.OBJECT = settings.OBJECT;
+	}
+	
 
 	
 	
@@ -76,17 +141,28 @@ public class ManyBlobs extends ArrayList<Blob> {
 	 * @param backgroundVal : 0 or 1 (black/white respectively)
 	 */
 	public void setBackground(int val){
+		OBJECT = getObjectValue(val);
+		BACKGROUND = 255 - OBJECT;
+	}
+	
+	/**
+	 * @param val The background, 0 or 1 (black/white respectively)
+	 * @return The pixel value of the objects (the background has the opposite value)
+	 */
+	static int getObjectValue(int val) {
 		if(val > 1)
 			throw new IllegalArgumentException("Value must be 0 or 1 (black/white respectively)");
-		
-		if(val == 0){
-			BACKGROUND = val;
-			OBJECT = 255;
-		}
-		else {
-			BACKGROUND = 255;
-			OBJECT = 0;
-		}
+		return val == 0 ? 255 : 0;
+	}
+	
+	/**
+	 * Sets whether the labeling stores the contours of the blobs as chain code (start point 
+	 * and three bits per contour point). A contour is decoded into a polygon the first time 
+	 * it is requested, so blobs whose contours are never used take a fraction of the memory.
+	 * @param chainCodes true to store the contours as chain code
+	 */
+	public void setChainCodeContours(boolean chainCodes) {
+		this.chainCodes = chainCodes;
 	}
 	
 	private void setImage(ImagePlus imp) {
@@ -106,18 +182,452 @@ public class ManyBlobs extends ArrayList<Blob> {
 	 * @see  F. Chang, A linear-time component-labeling algorithm using contour tracing technique, Computer Vision and Image Understanding, vol. 93, no. 2, pp. 206-220, 2004.
 	 */
 	public void findConnectedComponents() {
+		if(binaryImage==null && packedImage==null){
+			throw new RuntimeException("Cannot run findConnectedComponents: No input image specified");
+		}
+		ConnectedComponentLabeler labeler = createLabeler();
+		labeler.doConnectedComponents();
+		if(packedImage!=null){
+			labeledImage = null;
+			labeledImageSource = labeler;
+		}
+		else {
+			labeledImage = labeler.getLabledImage();
+		}
+	}
+	
+	private ConnectedComponentLabeler createLabeler() {
+		ConnectedComponentLabeler labeler;
+		if(packedImage!=null){
+			labeler = new PackedConnectedComponentLabeler(this,packedImage,new Calibration(),BACKGROUND);
+		}
+		else if(thresholded){
+			labeler = new ThresholdConnectedComponentLabeler(this,binaryImage.getProcessor(),binaryImage.getCalibration(),lowerThreshold,upperThreshold);
+		}
+		else {
+			labeler = new ConnectedComponentLabeler(this,binaryImage,BACKGROUND,OBJECT);
+		}
+		labeler.chainCodes = chainCodes;
+		return labeler;
+	}
+	
+	/**
+	 * Start the Connected Component Algorithm inside a region of the image. Pixels outside 
+	 * of the region are treated as background, so blobs which cross the border of the region 
+	 * are cut. Only buffers of the size of the region's bounding rectangle are allocated. 
+	 * The blobs are in the coordinates of the full image, the labeled image covers the 
+	 * bounding rectangle of the region.
+	 * @param roi Rectangular or arbitrary region. If it is null, the whole image is labeled.
+	 */
+	public void findConnectedComponents(Roi roi) {
+		if(roi==null){
+			findConnectedComponents();
+			return;
+		}
+		if(binaryImage==null && packedImage==null){
+			throw new RuntimeException("Cannot run findConnectedComponents: No input image specified");
+		}
+		int width = packedImage!=null ? packedImage.getWidth() : binaryImage.getWidth();
+		int height = packedImage!=null ? packedImage.getHeight() : binaryImage.getHeight();
+		Rectangle bounds = roi.getBounds();
+		Rectangle r = bounds.intersection(new Rectangle(0, 0, width, height));
+		if(r.isEmpty()){
+			throw new IllegalArgumentException("The region does not overlap the image");
+		}
+		ByteProcessor region = createRegionImage(r, roi.getMask(), bounds);
+		
+		int first = size();
+		ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(this,region,getCalibration(),BACKGROUND,OBJECT);
+		labeler.chainCodes = chainCodes;
+		labeler.doConnectedComponents();
+		labeledImage = labeler.getLabledImage();
+		labeledImageSource = null;
+		for (int i = first; i < size(); i++) {
+			get(i).translate(r.x, r.y);
+		}
+	}
+	
+	/**
+	 * Updates the blobs after the pixels inside a rectangle of the image were changed. 
+	 * Only the blobs whose bounds touch the rectangle are dropped, the neighborhood covered 
+	 * by them is labeled again and the new blobs are added at the end of the list.
+	 * Blobs which did not change are kept (with their label). A changed blob inherits the label 
+	 * of the first old blob it overlaps, new blobs get new labels. The labels of the labeled 
+	 * image are updated as well. The work depends on the size of the changed neighborhood, 
+	 * only the bounds check runs over all blobs.
+	 * @param changed The rectangle which contains all changed pixels
+	 */
+	public void updateConnectedComponents(Rectangle changed) {
+		if(labeledImageSource!=null){
+			getLabeledImage();
+		}
+		int width = packedImage!=null ? packedImage.getWidth() : binaryImage.getWidth();
+		int height = packedImage!=null ? packedImage.getHeight() : binaryImage.getHeight();
+		if(labeledImage==null || labeledImage.getWidth()!=width || labeledImage.getHeight()!=height){
+			throw new RuntimeException("Cannot run updateConnectedComponents: The whole image has to be labeled first");
+		}
+		Rectangle imageBounds = new Rectangle(0, 0, width, height);
+		Rectangle dirty = changed.intersection(imageBounds);
+		if(dirty.isEmpty()){
+			return;
+		}
+		// Blobs which touch one of the changed pixels (8-connected) may change
+		Rectangle near = new Rectangle(dirty.x - 1, dirty.y - 1, dirty.width + 2, dirty.height + 2);
+		Rectangle r = near.intersection(imageBounds);
+		ArrayList<Blob> affected = new ArrayList<Blob>();
+		int maxLabel = 0;
+		for (Blob b : this) {
+			Rectangle bb = b.getBounds();
+			bb.setSize(bb.width + 1, bb.height + 1);
+			if(bb.intersects(near)){
+				affected.add(b);
+				r.add(bb);
+			}
+			maxLabel = Math.max(maxLabel, b.getLabel());
+		}
+		
+		// Pixels of the affected blobs by label
+		int[] oldLabels = new int[r.width * r.height];
+		for (Blob b : affected) {
+			int[] runs = b.getRuns();
+			for (int i = 0; i < runs.length; i += 3) {
+				int offset = (runs[i] - r.y) * r.width - r.x;
+				Arrays.fill(oldLabels, offset + runs[i + 1], offset + runs[i + 2] + 1, b.getLabel());
+			}
+		}
+		
+		ManyBlobs found = new ManyBlobs();
+		ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(found,createRegionImage(r, null, r),getCalibration(),BACKGROUND,OBJECT);
+		labeler.chainCodes = chainCodes;
+		labeler.doConnectedComponents();
+		
+		// A blob of the region is new if it contains a changed pixel or a pixel of an affected blob.
+		// All other blobs are (parts of) blobs which were not affected.
+		int[] finalLabels = new int[found.size() + 1];
+		ArrayList<Blob> added = new ArrayList<Blob>();
+		ArrayList<Blob> kept = new ArrayList<Blob>();
+		for (Blob b : found) {
+			int[] runs = b.getRunLengthEncoding();
+			boolean isChanged = false;
+			int inherited = 0;
+			for (int i = 0; i < runs.length; i += 3) {
+				int y = runs[i] + r.y;
+				if(y >= dirty.y && y < dirty.y + dirty.height && 
+						runs[i + 2] + r.x >= dirty.x && runs[i + 1] + r.x < dirty.x + dirty.width){
+					isChanged = true;
+				}
+				for (int x = runs[i + 1]; inherited == 0 && x <= runs[i + 2]; x++) {
+					inherited = oldLabels[runs[i] * r.width + x];
+				}
+			}
+			if(!isChanged && inherited == 0){
+				continue;
+			}
+			b.translate(r.x, r.y);
+			Blob old = inherited != 0 ? getBlobByLabel(inherited) : null;
+			if(old != null && !kept.contains(old) && Arrays.equals(b.getRunLengthEncoding(), old.getRuns())){
+				kept.add(old);
+				finalLabels[b.getLabel()] = inherited;
+				continue;
+			}
+			int label = inherited;
+			for (Blob other : added) {
+				if(other.getLabel() == label){
+					label = 0;
+				}
+			}
+			for (Blob other : kept) {
+				if(other.getLabel() == label){
+					label = 0;
+				}
+			}
+			if(label == 0){
+				label = ++maxLabel;
+			}
+			finalLabels[b.getLabel()] = label;
+			b.setLabel(label);
+			added.add(b);
+		}
+		affected.removeAll(kept);
+		removeAll(affected);
+		addAll(added);
+		
+		// Update the labeled image inside the region
+		int[] labeled = (int[]) labeledImage.getProcessor().getPixels();
+		for (int y = 0; y < r.height; y++) {
+			for (int x = 0; x < r.width; x++) {
+				int index = y * r.width + x;
+				int local = labeler.labels[index];
+				int target = (r.y + y) * width + r.x + x;
+				if(local != 0){
+					if(finalLabels[local] != 0){
+						labeled[target] = finalLabels[local];
+					}
+				}
+				else {
+					labeled[target] = labeler.isMarked(index) ? BACKGROUND : 0;
+				}
+			}
+		}
+	}
+	
+	private Calibration getCalibration() {
+		return packedImage!=null ? new Calibration() : binaryImage.getCalibration();
+	}
+	
+	/**
+	 * Copies a region of the image as binary image. 
+	 * @param r The region (inside of the image)
+	 * @param mask Mask of the region or null. Pixels outside of the mask become background.
+	 * @param maskBounds Position of the mask in the image
+	 */
+	private ByteProcessor createRegionImage(Rectangle r, ImageProcessor mask, Rectangle maskBounds) {
+		ByteProcessor region = new ByteProcessor(r.width, r.height);
+		byte[] pixels = (byte[]) region.getPixels();
+		ImageProcessor ip = packedImage!=null ? null : binaryImage.getProcessor();
+		for (int y = 0; y < r.height; y++) {
+			for (int x = 0; x < r.width; x++) {
+				int ix = r.x + x;
+				int iy = r.y + y;
+				boolean object;
+				if(mask!=null && mask.get(ix - maskBounds.x, iy - maskBounds.y)==0){
+					object = false;
+				}
+				else if(packedImage!=null){
+					object = packedImage.get(ix, iy);
+				}
+				else if(thresholded){
+					float value = ip.getf(ix, iy);
+					object = value >= lowerThreshold && value <= upperThreshold;
+				}
+				else {
+					object = ip.get(ix, iy)==OBJECT;
+				}
+				pixels[y * r.width + x] = (byte) (object ? OBJECT : BACKGROUND);
+			}
+		}
+		return region;
+	}
+	
+	/**
+	 * Calculates the diameter of the maximum inscribed circle of all blobs with a single
+	 * euclidean distance map. All blobs are drawn into one mask from their runs, the distance
+	 * map is computed once and the maximum of each blob is read along its runs. The values are 
+	 * the same as of {@link Blob#getDiamaterMaximumInscribedCircle()} (which uses one distance map
+	 * per blob) and are kept by the blobs, so later calls of that method return them directly.
+	 * @return The diameters in the order of the blobs
+	 */
+	public double[] computeDiametersMaximumInscribedCircle() {
+		double[] diameters = new double[size()];
+		if(isEmpty()){
+			return diameters;
+		}
+		Rectangle r = null;
+		for (Blob b : this) {
+			Rectangle bb = b.getBounds();
+			bb.setSize(bb.width + 1, bb.height + 1);
+			r = r == null ? bb : r.union(bb);
+		}
+		ByteProcessor mask = new ByteProcessor(r.width, r.height);
+		byte[] pixels = (byte[]) mask.getPixels();
+		for (Blob b : this) {
+			int[] runs = b.getRuns();
+			for (int i = 0; i < runs.length; i += 3) {
+				int offset = (runs[i] - r.y) * r.width - r.x;
+				Arrays.fill(pixels, offset + runs[i + 1], offset + runs[i + 2] + 1, (byte) 255);
+			}
+		}
+		// Pixels outside of the mask are background like the border of the blob images
+		float[] distances = (float[]) new EDM().makeFloatEDM(mask, 0, true).getPixels();
+		for (int k = 0; k < size(); k++) {
+			Blob b = get(k);
+			int[] runs = b.getRuns();
+			float max = 0;
+			for (int i = 0; i < runs.length; i += 3) {
+				int offset = (runs[i] - r.y) * r.width - r.x;
+				for (int j = offset + runs[i + 1]; j <= offset + runs[i + 2]; j++) {
+					if (distances[j] > max) {
+						max = distances[j];
+					}
+				}
+			}
+			b.setMaximumDistanceToBackground(max);
+			diameters[k] = b.getDiamaterMaximumInscribedCircle();
+		}
+		return diameters;
+	}
+	
+	/**
+	 * Start the Connected Component Algorithm on the threads of the common fork/join pool.
+	 * The image is labeled in bands of rows concurrently and the components are merged 
+	 * across the band seams. The result is identical to {@link #findConnectedComponents()}.
+	 */
+	public void findConnectedComponentsParallel() {
+		findConnectedComponentsParallel(ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Start the Connected Component Algorithm on the threads of a fork/join pool.
+	 * The image is labeled in bands of rows concurrently and the components are merged 
+	 * across the band seams. The result is identical to {@link #findConnectedComponents()}.
+	 * A bit-packed or thresholded image and an image with a region of interest are labeled 
+	 * on the calling thread.
+	 * @param pool The pool which runs the labeling
+	 */
+	public void findConnectedComponentsParallel(ForkJoinPool pool) {
+		if(packedImage!=null || thresholded){
+			findConnectedComponents();
+			return;
+		}
 		if(binaryImage==null){
 			throw new RuntimeException("Cannot run findConnectedComponents: No input image specified");
 		}
-		ConnectedComponentLabeler labeler = new ConnectedComponentLabeler(this,binaryImage,BACKGROUND,OBJECT);
+		ConnectedComponentLabeler labeler = new ParallelConnectedComponentLabeler(this,binaryImage,BACKGROUND,OBJECT,pool);
+		labeler.chainCodes = chainCodes;
 		labeler.doConnectedComponents();
 		labeledImage = labeler.getLabledImage();
+		labeledImageSource = null;
+	}
+	/**
+	 * Labels every slice of a stack (or hyperstack) concurrently. Each worker thread
+	 * reuses the label buffers of its labeler for all of its slices.
+	 * @param imp Stack of binary images
+	 * @param nThreads Maximum number of worker threads
+	 * @return The blobs of each slice (in stack order)
+	 */
+	public static ManyBlobs[] findConnectedComponents(ImagePlus imp, int nThreads) {
+		return findConnectedComponents(imp.getImageStack(), imp.getCalibration(), 1, nThreads);
+	}
+	
+	/**
+	 * Labels every slice of a stack (or hyperstack) concurrently. Each worker thread
+	 * reuses the label buffers of its labeler for all of its slices.
+	 * @param imp Stack of binary images
+	 * @param background 0 or 1 (black/white respectively), see {@link #setBackground(int)}
+	 * @param nThreads Maximum number of worker threads
+	 * @return The blobs of each slice (in stack order)
+	 */
+	public static ManyBlobs[] findConnectedComponents(ImagePlus imp, int background, int nThreads) {
+		return findConnectedComponents(imp.getImageStack(), imp.getCalibration(), background, nThreads);
+	}
+	
+	/**
+	 * Labels every slice of a stack concurrently. Each worker thread
+	 * reuses the label buffers of its labeler for all of its slices.
+	 * @param stack Stack of binary images
+	 * @param cal Calibration of the slices
+	 * @param background 0 or 1 (black/white respectively), see {@link #setBackground(int)}
+	 * @param nThreads Maximum number of worker threads
+	 * @return The blobs of each slice (in stack order)
+	 */
+	public static ManyBlobs[] findConnectedComponents(ImageStack stack, Calibration cal, int background, int nThreads) {
+		ManyBlobs settings = new ManyBlobs();
+		settings.setBackground(background);
+		return findConnectedComponents(stack, cal, settings, nThreads);
 	}
+	
+	/**
+	 * Labels every slice of the stack of the image concurrently, with the settings of this 
+	 * object: the background, the chain code contours and the thresholds. Each worker thread
+	 * reuses the label buffers of its labeler for all of its slices.
+	 * @param nThreads Maximum number of worker threads
+	 * @return The blobs of each slice (in stack order)
+	 */
+	public ManyBlobs[] findConnectedComponentsOfStack(int nThreads) {
+		if(packedImage!=null){
+			throw new RuntimeException("Cannot run findConnectedComponentsOfStack: A bit-packed image has no stack");
+		}
+		if(binaryImage==null){
+			throw new RuntimeException("Cannot run findConnectedComponentsOfStack: No input image specified");
+		}
+		return findConnectedComponents(binaryImage.getImageStack(), binaryImage.getCalibration(), this, nThreads);
+	}
+	
+	/**
+	 * The stack is validated once, the slices are labeled without validating them again.
+	 */
+	private static ManyBlobs[] findConnectedComponents(final ImageStack stack, final Calibration cal, final ManyBlobs settings, int nThreads) {
+		checkStack(stack, settings.thresholded);
+		final int n = stack.getSize();
+		final ManyBlobs[] result = new ManyBlobs[n];
+		final AtomicInteger nextSlice = new AtomicInteger(0);
+		nThreads = Math.max(1, Math.min(nThreads, n));
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+		for (int t = 0; t < nThreads; t++) {
+			workers.add(executor.submit(new Runnable() {
+				public void run() {
+					ConnectedComponentLabeler labeler = null;
+					int i;
+					while ((i = nextSlice.getAndIncrement()) < n) {
+						ImagePlus slice = new ImagePlus("Slice " + (i + 1), stack.getProcessor(i + 1));
+						if (cal != null) {
+							slice.setCalibration(cal);
+						}
+						ManyBlobs blobs = new ManyBlobs(slice, settings);
+						if (labeler == null) {
+							labeler = blobs.createLabeler();
+						} else {
+							labeler.reset(blobs, slice.getProcessor(), slice.getCalibration());
+						}
+						labeler.doConnectedComponents();
+						blobs.labeledImage = labeler.getLabledImage();
+						result[i] = blobs;
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+		try {
+			for (Future<?> worker : workers) {
+				worker.get();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Labeling of the stack was interrupted", e);
+		} catch (ExecutionException e) {
+			executor.shutdownNow();
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return result;
+	}
+	
+	/**
+	 * Checks the format of all slices of a stack, see {@link #setImage(ImagePlus)}. 
+	 * A thresholded stack may be of any grayscale type.
+	 */
+	private static void checkStack(ImageStack stack, boolean thresholded) {
+		if (thresholded) {
+			if (stack.getBitDepth() == 24) {
+				throw new java.lang.IllegalArgumentException("Wrong Image Format. IJ Blob only supports single-channel grayscale images");
+			}
+			return;
+		}
+		if (stack.getBitDepth() != 8) {
+			throw new java.lang.IllegalArgumentException("Wrong Image Format. IJ Blob only supports 8-bit, single-channel binary images");
+		}
+		int pixelCount = stack.getWidth() * stack.getHeight();
+		for (int i = 1; i <= stack.getSize(); i++) {
+			int[] histogram = stack.getProcessor(i).getHistogram();
+			if (histogram[0] + histogram[255] != pixelCount) {
+				throw new java.lang.IllegalArgumentException("Wrong Image Format. IJ Blob only supports 8-bit, single-channel binary images");
+			}
+		}
+	}
+	
 	/**
 	 * 
 	 * @return Return the labeled Image.
 	 */
 	public ImagePlus getLabeledImage() {
+		if(labeledImage == null && labeledImageSource != null){
+			labeledImage = labeledImageSource.getLabledImage();
+			labeledImageSource = null;
+		}
 		if(labeledImage == null){
 			throw new RuntimeException("No input image was analysed for connected components");
 		}
@@ -127,6 +637,7 @@ public class ManyBlobs extends ArrayList<Blob> {
 
 	public void setLabeledImage(ImagePlus p) {
 		labeledImage = p;
+		labeledImageSource = null;
 	}
 	
 	/**
@@ -138,6 +649,11 @@ public class ManyBlobs extends ArrayList<Blob> {
 	public Blob getSpecificBlob(int x, int y){
 		
 		   for(int i = 0; i < this.size(); i++){
+		       // The bounds are checked first, so the contours of the other blobs are not decoded
+		       Rectangle r = this.get(i).getBounds();
+		       if(x < r.x || y < r.y || x > r.x + r.width || y > r.y + r.height){
+		    	   continue;
+		       }
 		       if(this.get(i).getOuterContour().contains(x, y)){
 		    	   return this.get(i);
 		       }
@@ -153,14 +669,149 @@ public class ManyBlobs extends ArrayList<Blob> {
 		   return getSpecificBlob(p.x,p.y);
 	}
 	
+	/**
+	 * Returns the blob with a specific label. The lookup uses a label-indexed table 
+	 * and takes constant time.
+	 * @param id Label of the blob
+	 * @return The blob with the label, otherwise null
+	 */
 	public Blob getBlobByLabel(int id){
+		Blob blob = labelTable.get(id);
+		if(blob != null && blob.getLabel()==id){
+			return blob;
+		}
+		// The label of a blob was changed after it was added
 		for (Blob b : this) {
 			if(b.getLabel()==id){
+				labelTable.put(id, b);
 				return b;
 			}
 		}
 		return null;
 	}
+	
+	private void indexBlob(Blob b){
+		if(b != null && !labelTable.containsKey(b.getLabel())){
+			labelTable.put(b.getLabel(), b);
+		}
+	}
+	
+	private void unindexBlob(Object o){
+		if(!(o instanceof Blob)){
+			return;
+		}
+		Blob b = (Blob) o;
+		if(labelTable.get(b.getLabel()) == b){
+			labelTable.remove(b.getLabel());
+			for (Blob other : this) {
+				if(other.getLabel() == b.getLabel()){
+					labelTable.put(other.getLabel(), other);
+					break;
+				}
+			}
+		}
+	}
+	
+	private void reindexBlobs(){
+		labelTable.clear();
+		for (Blob b : this) {
+			indexBlob(b);
+		}
+	}
+	
+	@Override
+	public boolean add(Blob b) {
+		super.add(b);
+		indexBlob(b);
+		return true;
+	}
+	
+	@Override
+	public void add(int index, Blob b) {
+		super.add(index, b);
+		indexBlob(b);
+	}
+	
+	@Override
+	public boolean addAll(Collection<? extends Blob> c) {
+		boolean changed = super.addAll(c);
+		for (Blob b : c) {
+			indexBlob(b);
+		}
+		return changed;
+	}
+	
+	@Override
+	public boolean addAll(int index, Collection<? extends Blob> c) {
+		boolean changed = super.addAll(index, c);
+		for (Blob b : c) {
+			indexBlob(b);
+		}
+		return changed;
+	}
+	
+	@Override
+	public Blob set(int index, Blob b) {
+		Blob old = super.set(index, b);
+		unindexBlob(old);
+		indexBlob(b);
+		return old;
+	}
+	
+	@Override
+	public Blob remove(int index) {
+		Blob old = super.remove(index);
+		unindexBlob(old);
+		return old;
+	}
+	
+	@Override
+	public boolean remove(Object o) {
+		boolean changed = super.remove(o);
+		if(changed){
+			unindexBlob(o);
+		}
+		return changed;
+	}
+	
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		boolean changed = super.removeAll(c);
+		reindexBlobs();
+		return changed;
+	}
+	
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		boolean changed = super.retainAll(c);
+		reindexBlobs();
+		return changed;
+	}
+	
+	@Override
+	public boolean removeIf(Predicate<? super Blob> filter) {
+		boolean changed = super.removeIf(filter);
+		reindexBlobs();
+		return changed;
+	}
+	
+	@Override
+	public void replaceAll(UnaryOperator<Blob> operator) {
+		super.replaceAll(operator);
+		reindexBlobs();
+	}
+	
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		super.removeRange(fromIndex, toIndex);
+		reindexBlobs();
+	}
+	
+	@Override
+	public void clear() {
+		super.clear();
+		labelTable.clear();
+	}
 
 	/**
 	 * Filter all blobs which feature (specified by the methodName) is higher than 
@@ -169,16 +820,13 @@ public class ManyBlobs extends ArrayList<Blob> {
 	 * @param methodName Getter method of the blob feature (double as return value).
 	 * @param lowerLimit Lower limit for the feature to filter blobs.
 	 * @param upperLimit Upper limit for the feature to filter blobs.
-	 * @return The filtered blobs.
+	 * @return The filtered blobs or null if the method does not exist.
 	 */
 	public ManyBlobs filterBlobs(double lowerLimit, double upperLimit, String methodName, Object... methodparams){
 		ManyBlobs result = null;
 		try {
 			result = filterBlobs2(lowerLimit,upperLimit,methodName,methodparams);
 		} catch (NoSuchMethodException e) {
-			// TODO Auto-generated catch block
-			IJ.error("The method " + methodName + "does not exist");
-			e.printStackTrace();
 			return null;
 		}
 		return result;
@@ -195,7 +843,12 @@ public class ManyBlobs extends ArrayList<Blob> {
 	 */
 	private ManyBlobs filterBlobs2(double lowerLimit, double upperLimit, String methodName, Object... methodparams) throws NoSuchMethodException{
 		ManyBlobs blobs = new ManyBlobs();
-		blobs.setImage(binaryImage);
+		blobs.binaryImage = binaryImage;
+		blobs.packedImage = packedImage;
+		blobs.thresholded = thresholded;
+		blobs.lowerThreshold = lowerThreshold;
+		blobs.upperThreshold = upperThreshold;
+		blobs.chainCodes = chainCodes;
 		@SuppressWarnings("rawtypes")
 		Class classparams[] = {};
 		if(methodparams.length >0){
@@ -233,7 +886,7 @@ public class ManyBlobs extends ArrayList<Blob> {
 			}
 
 			for(int i = 0; i < this.size(); i++) {
-				if(this.get(i).getOuterContour().npoints< 4){
+				if(this.get(i).getOuterContourPointCount() < 4){
 					continue;
 				}
 				double value = 0;
@@ -263,7 +916,7 @@ public class ManyBlobs extends ArrayList<Blob> {
 					value= (Double) methodvalue;
 				}
 				else {
-					IJ.log("Return type not supported");
+					throw new IllegalArgumentException("The return type of " + methodName + " is not supported");
 				}
 	
 				boolean included= false;
@@ -289,31 +942,22 @@ public class ManyBlobs extends ArrayList<Blob> {
 				}
 				if(included){
 					blobs.add(this.get(i));
-				//	IJ.log("ADD");
-					
-				}else{
-					//IJ.log("NOT INC " + methodName + " v " + value);
 				}
 			}
 		} catch (NoSuchMethodException e) {
 			throw new NoSuchMethodException("The method " + methodName + " was not found");
 	
-		} catch (SecurityException e) {
-			IJ.log(e.getMessage());
-		
-			e.printStackTrace();
 		} catch (IllegalAccessException e) {
-			IJ.log(e.getMessage());
-			e.printStackTrace();
+			throw new IllegalArgumentException("The method " + methodName + " is not accessible", e);
 		} catch (IllegalArgumentException e) {
-			IJ.log(e.getMessage());
-			throw new IllegalArgumentException("Method " + methodName + " was called with wrong types of parameters");
+			throw new IllegalArgumentException("Method " + methodName + " was called with wrong types of parameters", e);
 		} catch (InvocationTargetException e) {
-			IJ.log(e.getMessage());
-			e.printStackTrace();
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("The method " + methodName + " failed", e.getCause());
 		}
 		blobs.setLabeledImage(generateLabeledImageFromBlobs(blobs));
-	//	IJ.log("Blobs Nachher " + blobs.size());
 		return blobs;
 		
 	}
@@ -322,7 +966,7 @@ public class ManyBlobs extends ArrayList<Blob> {
 	
 	private ImagePlus generateLabeledImageFromBlobs(ManyBlobs blobs){
 		
-		ImagePlus labImg = NewImage.createRGBImage("Labeled Image", labeledImage.getWidth() , labeledImage.getHeight(), 1, NewImage.FILL_WHITE);
+		ImagePlus labImg = NewImage.createRGBImage("Labeled Image", getLabeledImage().getWidth() , getLabeledImage().getHeight(), 1, NewImage.FILL_WHITE);
 		ColorProcessor labledImageProc = (ColorProcessor)labImg.getProcessor();
 		for(int i = 0; i < blobs.size(); i++){
 			int helpcol = (int)(((double)i)/blobs.size() * (255*255*255));
@@ -338,17 +982,14 @@ public class ManyBlobs extends ArrayList<Blob> {
 	 * For instance: filterBlobs(Blob.GETENCLOSEDAREA,40,100) will filter all blobs between 40 and 100 pixel².
 	 * @param methodName Getter method of the blob feature (double as return value).
 	 * @param limits First Element is the lower limit, second element is the upper limit
-	 * @return The filtered blobs.
-	 * @throws NoSuchMethodException 
+	 * @return The filtered blobs or null if the method does not exist.
 	 */
 	public ManyBlobs filterBlobs(double[] limits, String methodName, Object... methodparams){
 		ManyBlobs result = null;
 		try {
 			result = filterBlobs2(limits[0], limits[1], methodName,methodparams);
 		} catch (NoSuchMethodException e) {
-				IJ.error("The method " + methodName + "does not exist");
-				e.printStackTrace();
-				return null;
+			return null;
 		}
 		return result;
 	}
@@ -358,16 +999,13 @@ public class ManyBlobs extends ArrayList<Blob> {
 	 * For instance: filterBlobs(Blob.GETENCLOSEDAREA,40) will filter all blobs with an area higher than 40 pixel²
 	 * @param methodName Getter method of the blob feature (double as return value).
 	 * @param lowerlimit Lower limit for the feature to filter blobs.
-	 * @return The filtered blobs.
-	 * @throws NoSuchMethodException 
+	 * @return The filtered blobs or null if the method does not exist.
 	 * */
 	public ManyBlobs filterBlobs(double lowerlimit, String methodName, Object... methodparams) {
 		ManyBlobs result = null;
 		try {
 			result = filterBlobs2(lowerlimit, Double.POSITIVE_INFINITY, methodName, methodparams);
 		} catch (NoSuchMethodException e) {
-			IJ.error("The method " + methodName + "does not exist");
-			e.printStackTrace();
 			return null;
 		}
 		return result;
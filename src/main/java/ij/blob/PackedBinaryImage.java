@@ -0,0 +1,120 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Binary image with one bit per pixel. Each row is packed into long words, the
+ * pixel (x,y) is bit x % 64 of the word y * getWordsPerRow() + x / 64. A set bit
+ * is an object pixel. Bits behind the last column of a row are ignored.
+ * @author Thorsten Wagner
+ */
+public class PackedBinaryImage {
+
+	private final int width;
+	private final int height;
+	private final int wordsPerRow;
+	private final long[] words;
+
+	/**
+	 * Creates an empty image (only background).
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 */
+	public PackedBinaryImage(int width, int height) {
+		this(new long[height * ((width + 63) >>> 6)], width, height);
+	}
+
+	/**
+	 * Wraps packed rows. The array is not copied.
+	 * @param words The rows, (width + 63) / 64 words per row
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 */
+	public PackedBinaryImage(long[] words, int width, int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Width and height must be positive");
+		}
+		wordsPerRow = (width + 63) >>> 6;
+		if (words.length < height * wordsPerRow) {
+			throw new IllegalArgumentException("The image needs at least " + height * wordsPerRow + " words");
+		}
+		this.width = width;
+		this.height = height;
+		this.words = words;
+	}
+
+	/**
+	 * Packs a binary 8-bit image.
+	 * @param ip The binary image
+	 * @param object Pixel value of the objects
+	 * @return The packed image
+	 */
+	public static PackedBinaryImage pack(ImageProcessor ip, int object) {
+		PackedBinaryImage image = new PackedBinaryImage(ip.getWidth(), ip.getHeight());
+		for (int y = 0; y < image.height; y++) {
+			for (int x = 0; x < image.width; x++) {
+				if (ip.get(x, y) == object) {
+					image.set(x, y, true);
+				}
+			}
+		}
+		return image;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return Number of words of each row
+	 */
+	public int getWordsPerRow() {
+		return wordsPerRow;
+	}
+
+	/**
+	 * @return The packed rows (not a copy)
+	 */
+	public long[] getWords() {
+		return words;
+	}
+
+	/**
+	 * @return true if (x,y) is an object pixel
+	 */
+	public boolean get(int x, int y) {
+		return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * @param object true for an object pixel, false for background
+	 */
+	public void set(int x, int y, boolean object) {
+		if (object) {
+			words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+		} else {
+			words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.measure.Calibration;
+import ij.process.ColorProcessor;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Does Connected Component Labeling on a bit-packed binary image. The image is scanned
+ * word by word, words without object pixels are skipped with a single compare and the
+ * object pixels of the other words are visited bit by bit. The contours are traced with
+ * the same tracer as the {@link ConnectedComponentLabeler}, so the blobs and the labeled
+ * image are identical to the result of the unpacked image.
+ * <p>
+ * There is no label buffer for the whole image: the scan only reads the labels of the 
+ * current row, so only this row is kept. The labels which the tracer writes into the rows 
+ * below are collected as (x, label) pairs per row until the scan reaches the row. Besides 
+ * the packed image and the blobs, the labeling needs one bit per pixel (the visited 
+ * background) and memory in the order of the contour lengths. The labeled image is created 
+ * from the runs of the blobs when it is requested.
+ * @author Thorsten Wagner
+ */
+class PackedConnectedComponentLabeler extends ConnectedComponentLabeler {
+
+	private long[] bits;
+	private int wordsPerRow;
+
+	private int row = -1;
+	private int rowOffset; //Pixel index of the first pixel of the current row
+	private int rowWordOffset; //Word index of the first word of the current row
+	private int[] rowLabels;
+	private int[][] pendingLabels; //(x, label) pairs of the contour points below the current row
+	private int[] npending;
+	private Blob[] blobs; //The blobs of the last labeling, ordered by label
+
+	/**
+	 * @param allBlobs A ManyBlobs Object where the Blobs has to be stored
+	 * @param image The packed binary image
+	 * @param cal The calibration of the image
+	 * @param BACKGROUND Value of the background in the labeled image
+	 */
+	public PackedConnectedComponentLabeler(ManyBlobs allBlobs, PackedBinaryImage image, Calibration cal, int BACKGROUND) {
+		super(allBlobs, image.getWidth(), image.getHeight(), cal, false);
+		this.bits = image.getWords();
+		this.wordsPerRow = image.getWordsPerRow();
+		this.BACKGROUND = BACKGROUND;
+	}
+
+	@Override
+	public void doConnectedComponents() {
+		rowLabels = new int[width];
+		pendingLabels = new int[height][];
+		npending = new int[height];
+		int first = allBlobs.size();
+		super.doConnectedComponents();
+		blobs = allBlobs.subList(first, allBlobs.size()).toArray(new Blob[0]);
+		rowLabels = null;
+		pendingLabels = null;
+		npending = null;
+		row = -1;
+	}
+
+	@Override
+	ContourTracer createTracer() {
+		return new ContourTracer(bits, wordsPerRow, null, marks, width, height) {
+			@Override
+			void setLabel(int index, int x, int y, int label) {
+				labelContourPoint(x, y, label);
+			}
+		};
+	}
+
+	/**
+	 * The contours of the blobs which are found in a row never reach a row above.
+	 */
+	private void labelContourPoint(int x, int y, int label) {
+		if (y == row) {
+			rowLabels[x] = label;
+			return;
+		}
+		int n = npending[y];
+		int[] pairs = pendingLabels[y];
+		if (pairs == null) {
+			pairs = new int[8];
+			pendingLabels[y] = pairs;
+		} else if (n + 2 > pairs.length) {
+			pairs = Arrays.copyOf(pairs, pairs.length * 2);
+			pendingLabels[y] = pairs;
+		}
+		pairs[n] = x;
+		pairs[n + 1] = label;
+		npending[y] = n + 2;
+	}
+
+	@Override
+	void startRow(int y) {
+		row = y;
+		rowOffset = y * width;
+		rowWordOffset = y * wordsPerRow;
+		Arrays.fill(rowLabels, NOLABEL);
+		int[] pairs = pendingLabels[y];
+		if (pairs != null) {
+			for (int i = 0; i < npending[y]; i += 2) {
+				rowLabels[pairs[i]] = pairs[i + 1];
+			}
+			pendingLabels[y] = null;
+		}
+	}
+
+	@Override
+	int getLabel(int index) {
+		return rowLabels[index - rowOffset];
+	}
+
+	@Override
+	void setLabel(int index, int label) {
+		rowLabels[index - rowOffset] = label;
+	}
+
+	@Override
+	Rectangle getScanRegion() {
+		return new Rectangle(0, 0, width, height);
+	}
+
+	/**
+	 * The scan only tests pixels of the current row and of the rows above and below, so the 
+	 * word is found relative to the current row.
+	 */
+	@Override
+	boolean isObject(int index) {
+		int x = index - rowOffset;
+		int word = rowWordOffset;
+		if (x < 0) {
+			x += width;
+			word -= wordsPerRow;
+		} else if (x >= width) {
+			x -= width;
+			word += wordsPerRow;
+		}
+		return (bits[word + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	/**
+	 * Words without object pixels are skipped with a single compare, the object pixels of 
+	 * the other words are found with {@link Long#numberOfTrailingZeros(long)}.
+	 */
+	@Override
+	int nextObject(int index, int end) {
+		if (index >= end) {
+			return end;
+		}
+		int x = index - rowOffset;
+		int endX = end - rowOffset;
+		int k = x >>> 6;
+		// Bits behind the last column are no pixels
+		long word = bits[rowWordOffset + k] & (-1L << x);
+		while (word == 0) {
+			if (++k << 6 >= endX) {
+				return end;
+			}
+			word = bits[rowWordOffset + k];
+		}
+		x = (k << 6) + Long.numberOfTrailingZeros(word);
+		return x < endX ? rowOffset + x : end;
+	}
+
+	/**
+	 * Writes the labeled image from the runs of the blobs and the visited background.
+	 */
+	@Override
+	void getLabledImage(ColorProcessor proc) {
+		int[] pixels = (int[]) proc.getPixels();
+		for (int i = 0; i < pixels.length; ++i) {
+			pixels[i] = isMarked(i) ? BACKGROUND : NOLABEL;
+		}
+		for (int k = 0; k < blobs.length; k++) {
+			int[] runs = blobs[k].getRunLengthEncoding();
+			for (int i = 0; i < runs.length; i += 3) {
+				int offset = runs[i] * width;
+				Arrays.fill(pixels, offset + runs[i + 1], offset + runs[i + 2] + 1, k + 1);
+			}
+		}
+	}
+}
@@ -0,0 +1,460 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.ImagePlus;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Does Connected Component Labeling on several threads. The image is split into bands
+ * of rows which are labeled concurrently. The objects (8-connected) and the background
+ * (4-connected) are labeled with a union-find structure, so components which cross a band
+ * seam can be merged afterwards. The labels are ordered like the labels of the sequential
+ * {@link ConnectedComponentLabeler} and the contours are traced with the same tracer, so
+ * the resulting blobs and the labeled image are identical. If the image processor has a 
+ * region of interest, the region is labeled sequentially.
+ * @author Thorsten Wagner
+ */
+class ParallelConnectedComponentLabeler extends ConnectedComponentLabeler {
+
+	private static final int MIN_ROWS_PER_BAND = 16;
+	private static final int CONTOURS_PER_TASK = 64;
+	private static final int EXTERIOR = 1;
+
+	private ForkJoinPool pool;
+
+	/**
+	 * @param allBlobs A ManyBlobs Object where the Blobs has to be stored
+	 * @param imp The image
+	 * @param pool The pool which runs the labeling
+	 */
+	public ParallelConnectedComponentLabeler(ManyBlobs allBlobs, ImagePlus imp, int BACKGROUND, int OBJECT, ForkJoinPool pool) {
+		super(allBlobs, imp, BACKGROUND, OBJECT);
+		this.pool = pool;
+	}
+
+	/**
+	 * Start the parallel Connected Component Algorithm
+	 */
+	@Override
+	public void doConnectedComponents() {
+		Rectangle roi = getScanRegion();
+		if (roi.width != width || roi.height != height) {
+			// The bands cover the whole image, a region of interest is scanned sequentially
+			super.doConnectedComponents();
+			return;
+		}
+		final byte[] pixels = (byte[]) ip.getPixels();
+
+		// Label each band on its own
+		int nBands = Math.max(1, Math.min(pool.getParallelism() * 4, height / MIN_ROWS_PER_BAND));
+		final Band[] bands = new Band[nBands];
+		for (int b = 0; b < nBands; b++) {
+			bands[b] = new Band((int) ((long) height * b / nBands), (int) ((long) height * (b + 1) / nBands));
+		}
+		pool.invoke(new RangeTask(0, nBands, 1) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			void compute(int from, int to) {
+				for (int b = from; b < to; b++) {
+					bands[b].label(pixels);
+				}
+			}
+		});
+
+		// Merge the band results into global union-find structures
+		int fgCount = 0;
+		int bgCount = 0;
+		for (Band band : bands) {
+			band.fgOffset = fgCount;
+			band.bgOffset = bgCount;
+			fgCount += band.fg.count;
+			bgCount += band.bg.count;
+		}
+		final UnionFind fg = new UnionFind(fgCount);
+		final UnionFind bg = new UnionFind(bgCount);
+		for (Band band : bands) {
+			fg.append(band.fg, band.fgOffset);
+			bg.append(band.bg, band.bgOffset);
+		}
+		for (int b = 1; b < nBands; b++) {
+			mergeSeam(pixels, bands[b - 1], bands[b], fg, bg);
+			bg.union(bands[0].bgOffset + EXTERIOR, bands[b].bgOffset + EXTERIOR);
+		}
+
+		// The labels are ordered by the first pixel (raster order) of the components
+		int[] outerStarts = fg.sortedRootsByFirstIndex(0);
+		int[] holeStarts = bg.sortedRootsByFirstIndex(bg.find(bands[0].bgOffset + EXTERIOR));
+		final int blobCount = outerStarts.length;
+		final int holeCount = holeStarts.length;
+		final int[] starts = Arrays.copyOf(outerStarts, blobCount + holeCount);
+		for (int i = 0; i < holeCount; i++) {
+			// The inner contour starts at the pixel above the first hole pixel
+			starts[blobCount + i] = holeStarts[i] - width;
+		}
+		final int[] finalLabels = fg.finalLabels();
+
+		pool.invoke(new RangeTask(0, nBands, 1) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			void compute(int from, int to) {
+				for (int b = from; b < to; b++) {
+					bands[b].relabel(finalLabels);
+				}
+			}
+		});
+
+		// Trace the outer and inner contours
+		final Blob[] blobs = new Blob[blobCount + 1];
+		final Polygon[] holes = new Polygon[holeCount];
+		final ChainCode[] holeChainCodes = new ChainCode[holeCount];
+		pool.invoke(new RangeTask(0, blobCount + holeCount, CONTOURS_PER_TASK) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			void compute(int from, int to) {
+				ContourTracer tracer = new ContourTracer(pixels, labels, null, width, height, OBJECT);
+				for (int k = from; k < to; k++) {
+					int index = starts[k];
+					int x = index % width;
+					int y = index / width;
+					if (k < blobCount) {
+						blobs[k + 1] = traceBlob(tracer, x, y, k + 1);
+					} else if (chainCodes) {
+						holeChainCodes[k - blobCount] = tracer.traceChainCode(x, y, labels[index], ContourTracer.INTERNAL_CONTOUR);
+					} else {
+						holes[k - blobCount] = tracer.traceContour(x, y, labels[index], ContourTracer.INTERNAL_CONTOUR);
+					}
+				}
+				synchronized (marks) {
+					tracer.flushMarks(marks);
+				}
+			}
+		});
+
+		for (int k = 1; k <= blobCount; k++) {
+			allBlobs.add(blobs[k]);
+		}
+		for (int k = 0; k < holeCount; k++) {
+			Blob blob = blobs[labels[starts[blobCount + k]]];
+			if (chainCodes) {
+				blob.addInnerContour(holeChainCodes[k]);
+			} else {
+				blob.addInnerContour(holes[k]);
+			}
+		}
+		for (Band band : bands) {
+			for (int i = 0; i < band.nRuns; i++) {
+				blobs[band.runs[4 * i]].addRun(band.runs[4 * i + 1], band.runs[4 * i + 2], band.runs[4 * i + 3]);
+			}
+			band.runs = null;
+		}
+		for (int k = 1; k <= blobCount; k++) {
+			blobs[k].trimRuns();
+		}
+	}
+
+	/**
+	 * Unions the components of the last row of the upper band with the components of
+	 * the first row of the lower band.
+	 */
+	private void mergeSeam(byte[] pixels, Band upper, Band lower, UnionFind fg, UnionFind bg) {
+		int row = lower.start * width;
+		for (int x = 0; x < width; x++) {
+			int index = row + x;
+			int above = index - width;
+			if ((pixels[index] & 255) == OBJECT) {
+				int id = lower.fgOffset + labels[index];
+				for (int dx = -1; dx <= 1; dx++) {
+					int nx = x + dx;
+					if (nx >= 0 && nx < width && (pixels[above + dx] & 255) == OBJECT) {
+						fg.union(id, upper.fgOffset + labels[above + dx]);
+					}
+				}
+			} else if ((pixels[above] & 255) != OBJECT) {
+				bg.union(lower.bgOffset - labels[index], upper.bgOffset - labels[above]);
+			}
+		}
+	}
+
+	/**
+	 * Rows [start, end) of the image. Objects get positive local ids, the background
+	 * negative local ids in the label buffer. The background id {@link #EXTERIOR} is
+	 * the background which is connected to the image border.
+	 */
+	private class Band {
+		final int start;
+		final int end;
+		UnionFind fg = new UnionFind(64);
+		UnionFind bg = new UnionFind(64);
+		int fgOffset;
+		int bgOffset;
+		int[] runs;
+		int nRuns;
+
+		Band(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		void label(byte[] pixels) {
+			// Reserves the id EXTERIOR
+			bg.add(-1);
+			for (int y = start; y < end; y++) {
+				boolean firstRow = y == start;
+				boolean borderRow = y == 0 || y == height - 1;
+				int row = y * width;
+				for (int x = 0; x < width; x++) {
+					int index = row + x;
+					int id;
+					if ((pixels[index] & 255) == OBJECT) {
+						boolean upperLeft = !firstRow && x > 0 && (pixels[index - width - 1] & 255) == OBJECT;
+						boolean upperRight = !firstRow && x < width - 1 && (pixels[index - width + 1] & 255) == OBJECT;
+						if (x > 0 && (pixels[index - 1] & 255) == OBJECT) {
+							id = labels[index - 1];
+							if (upperRight) {
+								fg.union(id, labels[index - width + 1]);
+							}
+						} else if (!firstRow && (pixels[index - width] & 255) == OBJECT) {
+							id = labels[index - width];
+						} else if (upperLeft) {
+							id = labels[index - width - 1];
+							if (upperRight) {
+								fg.union(id, labels[index - width + 1]);
+							}
+						} else if (upperRight) {
+							id = labels[index - width + 1];
+						} else {
+							id = fg.add(index);
+						}
+						labels[index] = id;
+					} else {
+						if (x > 0 && (pixels[index - 1] & 255) != OBJECT) {
+							id = -labels[index - 1];
+							if (!firstRow && (pixels[index - width] & 255) != OBJECT) {
+								bg.union(id, -labels[index - width]);
+							}
+						} else if (!firstRow && (pixels[index - width] & 255) != OBJECT) {
+							id = -labels[index - width];
+						} else {
+							id = bg.add(index);
+						}
+						if (borderRow || x == 0 || x == width - 1) {
+							bg.union(id, EXTERIOR);
+						}
+						labels[index] = -id;
+					}
+				}
+			}
+			fg.flatten();
+			bg.flatten();
+		}
+
+		/**
+		 * Writes the final labels into the label buffer and collects the runs of the band
+		 * as (label, row, first x, last x).
+		 */
+		void relabel(int[] finalLabels) {
+			runs = new int[64];
+			nRuns = 0;
+			for (int y = start; y < end; y++) {
+				int runStart = -1;
+				for (int x = 0, index = y * width; x < width; x++, index++) {
+					int id = labels[index];
+					if (id > 0) {
+						labels[index] = finalLabels[fgOffset + id];
+						if (runStart == -1) {
+							runStart = x;
+						}
+						if (x == width - 1 || labels[index + 1] <= 0) {
+							if (4 * nRuns + 4 > runs.length) {
+								runs = Arrays.copyOf(runs, runs.length * 2);
+							}
+							runs[4 * nRuns] = labels[index];
+							runs[4 * nRuns + 1] = y;
+							runs[4 * nRuns + 2] = runStart;
+							runs[4 * nRuns + 3] = x;
+							nRuns++;
+							runStart = -1;
+						}
+					} else {
+						labels[index] = NOLABEL;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Union-find over ids 1..count. Roots are always the smallest id of a set, so a single
+	 * ascending pass flattens the whole structure. For every id the pixel index where it was
+	 * created is stored.
+	 */
+	private static class UnionFind {
+		int[] parent;
+		int[] first;
+		int count;
+
+		UnionFind(int capacity) {
+			parent = new int[capacity + 1];
+			first = new int[capacity + 1];
+		}
+
+		int add(int firstIndex) {
+			count++;
+			if (count == parent.length) {
+				parent = Arrays.copyOf(parent, count * 2);
+				first = Arrays.copyOf(first, count * 2);
+			}
+			parent[count] = count;
+			first[count] = firstIndex;
+			return count;
+		}
+
+		void append(UnionFind local, int offset) {
+			for (int id = 1; id <= local.count; id++) {
+				parent[offset + id] = offset + local.parent[id];
+				first[offset + id] = local.first[id];
+			}
+			count = Math.max(count, offset + local.count);
+		}
+
+		int find(int id) {
+			while (parent[id] != id) {
+				parent[id] = parent[parent[id]];
+				id = parent[id];
+			}
+			return id;
+		}
+
+		void union(int a, int b) {
+			a = find(a);
+			b = find(b);
+			if (a < b) {
+				parent[b] = a;
+			} else if (b < a) {
+				parent[a] = b;
+			}
+		}
+
+		void flatten() {
+			for (int id = 1; id <= count; id++) {
+				parent[id] = parent[parent[id]];
+			}
+		}
+
+		/**
+		 * @param exclude A root which is skipped (0 if none)
+		 * @return The first pixel index of every set, in ascending order
+		 */
+		int[] sortedRootsByFirstIndex(int exclude) {
+			flatten();
+			for (int id = 1; id <= count; id++) {
+				int root = parent[id];
+				if (first[id] < first[root]) {
+					first[root] = first[id];
+				}
+			}
+			int nRoots = 0;
+			for (int id = 1; id <= count; id++) {
+				if (parent[id] == id && id != exclude) {
+					nRoots++;
+				}
+			}
+			long[] keys = new long[nRoots];
+			int k = 0;
+			for (int id = 1; id <= count; id++) {
+				if (parent[id] == id && id != exclude) {
+					keys[k++] = ((long) first[id] << 32) | id;
+				}
+			}
+			Arrays.sort(keys);
+			int[] firstIndices = new int[nRoots];
+			for (k = 0; k < nRoots; k++) {
+				firstIndices[k] = (int) (keys[k] >>> 32);
+				// The root now stores its rank
+				first[(int) keys[k]] = k + 1;
+			}
+			return firstIndices;
+		}
+
+		/**
+		 * Must be called after {@link #sortedRootsByFirstIndex(int)}
+		 * @return The final label (rank of its set) for every id
+		 */
+		int[] finalLabels() {
+			int[] finalLabels = new int[count + 1];
+			for (int id = 1; id <= count; id++) {
+				finalLabels[id] = first[parent[id]];
+			}
+			return finalLabels;
+		}
+	}
+
+	/**
+	 * Splits the range [from, to) until it contains at most grain elements.
+	 */
+	private static abstract class RangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		RangeTask(int from, int to, int grain) {
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		abstract void compute(int from, int to);
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				compute(from, to);
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			final RangeTask outer = this;
+			RangeTask left = new RangeTask(from, mid, grain) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				void compute(int from, int to) {
+					outer.compute(from, to);
+				}
+			};
+			RangeTask right = new RangeTask(mid, to, grain) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				void compute(int from, int to) {
+					outer.compute(from, to);
+				}
+			};
+			invokeAll(left, right);
+		}
+	}
+}
@@ -99,13 +99,205 @@ public final class RotatingCalipers {
             throw new IllegalArgumentException("xs and ys don't have the same size");
         }
 
-        List<Point> points = new ArrayList<Point>();
+        if(xs.length < 3) {
+            throw new IllegalArgumentException("can only create a convex hull of 3 or more unique points");
+        }
 
-        for(int i = 0; i < xs.length; i++) {
-            points.add(new Point(xs[i], ys[i]));
+        ConvexHull hull = ConvexHull.of(xs, ys, xs.length);
+
+        if(hull.getVertexCount() < 3) {
+            throw new IllegalArgumentException("cannot create a convex hull from collinear points");
+        }
+
+        double[] corners = getMinimumAreaRectangle(hull.xpoints, hull.ypoints, hull.npoints);
+        Point2D.Double[] rectangle = new Point2D.Double[4];
+
+        for(int i = 0; i < 4; i++) {
+            rectangle[i] = new Point2D.Double(corners[2 * i], corners[2 * i + 1]);
+        }
+
+        return rectangle;
+    }
+
+    /**
+     * Rotates the calipers along the edges of a convex hull. The minimum area rectangle has a side on
+     * a hull edge, so for each edge the points with the largest and smallest projection on the edge and
+     * the point farthest from it are advanced (each of them goes once around the hull) and the minimum
+     * is kept on the fly. The projections are compared in exact integer arithmetic.
+     *
+     * @param xs x coordinates of the closed convex hull without collinear points (see {@link ConvexHull})
+     * @param ys y coordinates of the closed convex hull
+     * @param n  number of hull points including the closing point, at least 4
+     * @return Corners (x0, y0, ..., x3, y3) of the rectangle with the minimum area
+     */
+    static double[] getMinimumAreaRectangle(int[] xs, int[] ys, int n) {
+
+        double[] corners = new double[8];
+        double minimumArea = Double.MAX_VALUE;
+        int m = n - 1;
+        int right = 0;
+        int top = 0;
+        int left = 0;
+
+        for(int i = 0; i < m; i++) {
+
+            long ex = (long) xs[i + 1] - xs[i];
+            long ey = (long) ys[i + 1] - ys[i];
+
+            if(i == 0) {
+                for(int k = 1; k < m; k++) {
+                    if(dot(ex, ey, xs[k], ys[k]) > dot(ex, ey, xs[right], ys[right])) {
+                        right = k;
+                    }
+                    if(dot(ex, ey, xs[k], ys[k]) < dot(ex, ey, xs[left], ys[left])) {
+                        left = k;
+                    }
+                    if(dot(-ey, ex, xs[k], ys[k]) > dot(-ey, ex, xs[top], ys[top])) {
+                        top = k;
+                    }
+                }
+            }
+            else {
+                while(dot(ex, ey, xs[right + 1], ys[right + 1]) > dot(ex, ey, xs[right], ys[right])) {
+                    right = (right + 1) % m;
+                }
+                while(dot(-ey, ex, xs[top + 1], ys[top + 1]) > dot(-ey, ex, xs[top], ys[top])) {
+                    top = (top + 1) % m;
+                }
+                while(dot(ex, ey, xs[left + 1], ys[left + 1]) < dot(ex, ey, xs[left], ys[left])) {
+                    left = (left + 1) % m;
+                }
+            }
+
+            double length = Math.sqrt(ex * ex + ey * ey);
+            double minProjection = dot(ex, ey, xs[left], ys[left]) / length;
+            double maxProjection = dot(ex, ey, xs[right], ys[right]) / length;
+            double base = dot(-ey, ex, xs[i], ys[i]) / length;
+            double height = dot(-ey, ex, xs[top], ys[top]) / length - base;
+            double area = (maxProjection - minProjection) * height;
+
+            if(area < minimumArea) {
+                minimumArea = area;
+                setCorners(corners, ex / length, ey / length, minProjection, maxProjection, base, height);
+            }
+        }
+
+        return corners;
+    }
+
+    /**
+     * Computes the feret values of a convex hull in one pass over its antipodal pairs. For each
+     * edge the vertex farthest from it is advanced (once around the hull), the largest distance
+     * between the edge points and that vertex is the feret diameter and the smallest distance of
+     * it to the edge is the minimum feret diameter.
+     *
+     * @param xs x coordinates of the closed convex hull without collinear points (see {@link ConvexHull})
+     * @param ys y coordinates of the closed convex hull
+     * @param n  number of hull points including the closing point, at least 4
+     * @return {feret diameter, feret angle (degree, 0 to 180, counter clockwise), minimum feret diameter,
+     *         width orthogonal to the minimum feret diameter}
+     */
+    static double[] getFeretValues(double[] xs, double[] ys, int n) {
+
+        int m = n - 1;
+        int far = 1;
+        int right = 0;
+        int left = 0;
+        double max = -1;
+        int max1 = 0;
+        int max2 = 0;
+        double min = Double.MAX_VALUE;
+        double orthogonal = 0;
+
+        for(int i = 0; i < m; i++) {
+
+            double ex = xs[i + 1] - xs[i];
+            double ey = ys[i + 1] - ys[i];
+
+            while(height(ex, ey, xs, ys, i, far + 1) > height(ex, ey, xs, ys, i, far)) {
+                far = (far + 1) % m;
+            }
+            if(i == 0) {
+                for(int k = 1; k < m; k++) {
+                    if(ex * xs[k] + ey * ys[k] > ex * xs[right] + ey * ys[right]) {
+                        right = k;
+                    }
+                    if(ex * xs[k] + ey * ys[k] < ex * xs[left] + ey * ys[left]) {
+                        left = k;
+                    }
+                }
+            }
+            else {
+                while(ex * xs[right + 1] + ey * ys[right + 1] > ex * xs[right] + ey * ys[right]) {
+                    right = (right + 1) % m;
+                }
+                while(ex * xs[left + 1] + ey * ys[left + 1] < ex * xs[left] + ey * ys[left]) {
+                    left = (left + 1) % m;
+                }
+            }
+
+            // Parallel edges have two farthest vertices
+            int last = height(ex, ey, xs, ys, i, far + 1) == height(ex, ey, xs, ys, i, far) ? far + 1 : far;
+            for(int k = far; k <= last; k++) {
+                for(int e = i; e <= i + 1; e++) {
+                    double dx = xs[k] - xs[e];
+                    double dy = ys[k] - ys[e];
+                    double d = dx * dx + dy * dy;
+                    if(d > max) {
+                        max = d;
+                        max1 = e;
+                        max2 = k;
+                    }
+                }
+            }
+
+            double length = Math.sqrt(ex * ex + ey * ey);
+            double width = height(ex, ey, xs, ys, i, far) / length;
+            if(width < min) {
+                min = width;
+                orthogonal = ((ex * xs[right] + ey * ys[right]) - (ex * xs[left] + ey * ys[left])) / length;
+            }
         }
 
-        return getMinimumBoundingRectangle(points);
+        double x1 = xs[max1];
+        double y1 = ys[max1];
+        double x2 = xs[max2];
+        double y2 = ys[max2];
+        if(x1 > x2) {
+            x1 = x2;
+            y1 = ys[max2];
+            x2 = xs[max1];
+            y2 = ys[max1];
+        }
+        // The y axis of the image points downwards
+        double angle = Math.toDegrees(Math.atan2(y1 - y2, x2 - x1));
+        if(angle < 0) {
+            angle = 180.0 + angle;
+        }
+
+        return new double[]{Math.sqrt(max), angle, min, orthogonal};
+    }
+
+    /**
+     * @return The distance of the point k to the edge (i, i+1), multiplied by the length of the edge
+     */
+    private static double height(double ex, double ey, double[] xs, double[] ys, int i, int k) {
+        return ex * (ys[k] - ys[i]) - ey * (xs[k] - xs[i]);
+    }
+
+    private static long dot(long ex, long ey, int x, int y) {
+        return ex * x + ey * y;
+    }
+
+    private static void setCorners(double[] corners, double ux, double uy, double min, double max, double base, double height) {
+
+        double[] s = {min, max, max, min};
+        double[] t = {base, base, base + height, base + height};
+
+        for(int k = 0; k < 4; k++) {
+            corners[2 * k] = s[k] * ux - t[k] * uy;
+            corners[2 * k + 1] = s[k] * uy + t[k] * ux;
+        }
     }
 
     public static Point2D.Double[] getMinimumBoundingRectangle(List<Point> points) throws IllegalArgumentException {
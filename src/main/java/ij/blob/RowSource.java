@@ -0,0 +1,45 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+/**
+ * Delivers the rows of a binary image for the {@link StreamingLabeler}. Implementations
+ * can read the image from a file or generate it on the fly, so the whole image never
+ * has to be in memory.
+ * @author Thorsten Wagner
+ */
+public interface RowSource {
+
+	/**
+	 * @return Width of the image
+	 */
+	int getWidth();
+
+	/**
+	 * @return Height of the image
+	 */
+	int getHeight();
+
+	/**
+	 * Reads consecutive rows of the image. The rows are requested in ascending order.
+	 * @param y The first row
+	 * @param rows Number of rows
+	 * @param buffer Buffer for the pixels (at least rows * width bytes). The pixels of row y+i start at i * width.
+	 */
+	void readRows(int y, int rows, byte[] buffer);
+}
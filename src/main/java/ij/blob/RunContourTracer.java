@@ -0,0 +1,182 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.measure.Calibration;
+
+import java.util.Arrays;
+
+/**
+ * Traces the contours of a single component which is given by its runs, so the component
+ * does not have to be drawn into an image first. Object pixels are looked up by a binary 
+ * search in the runs of their row, the visited background pixels are kept in a hash set. 
+ * The tracing itself is the one of the {@link ContourTracer}, so the traced contours are 
+ * identical. The pixel indices of the tracer are not used, since the image is not stored.
+ * @author Thorsten Wagner
+ */
+final class RunContourTracer extends ContourTracer {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private final int[] runs;
+	private final int[] rowStart;
+	private final int firstY;
+	private final int rows;
+
+	private long[] visited = new long[64];
+	private int nvisited;
+
+	/**
+	 * @param runs Runs of the component as (row, first x, last x) triples, ordered by row and x
+	 * @param rowStart Index of the first run of each row, relative to firstY. 
+	 * rowStart[rows] is the number of runs.
+	 * @param firstY First row of the component
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 */
+	RunContourTracer(int[] runs, int[] rowStart, int firstY, int width, int height) {
+		super(null, null, null, width, height, 0);
+		this.runs = runs;
+		this.rowStart = rowStart;
+		this.firstY = firstY;
+		this.rows = rowStart.length - 1;
+		Arrays.fill(visited, EMPTY);
+	}
+
+	/**
+	 * Traces the outer contour and the holes like the {@link ConnectedComponentLabeler}
+	 * does in the bounding box of the component.
+	 * @param label Label of the blob
+	 * @param cal Calibration of the blob
+	 * @param chainCodes true to store the contours as chain code
+	 * @return The blob, without runs
+	 */
+	Blob traceBlob(int label, Calibration cal, boolean chainCodes) {
+		Blob blob;
+		if (chainCodes) {
+			blob = new Blob(traceChainCode(runs[1], firstY, label, EXTERNAL_CONTOUR), label, cal);
+		} else {
+			blob = new Blob(traceContour(runs[1], firstY, label, EXTERNAL_CONTOUR), label, cal);
+		}
+		// A hole starts at an object pixel above a background pixel which was not visited yet.
+		// The pixels below the last row belong to the surrounding background.
+		for (int r = 0; r < rows - 1; r++) {
+			int y = firstY + r;
+			int k = rowStart[r + 1];
+			int belowEnd = rowStart[r + 2];
+			for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+				int end = runs[3 * i + 2];
+				int x = runs[3 * i + 1];
+				while (x <= end) {
+					// Skip the object pixels below
+					while (k < belowEnd && runs[3 * k + 2] < x) {
+						k++;
+					}
+					if (k < belowEnd && runs[3 * k + 1] <= x) {
+						x = runs[3 * k + 2] + 1;
+						continue;
+					}
+					int gapEnd = k < belowEnd ? Math.min(end, runs[3 * k + 1] - 1) : end;
+					for (; x <= gapEnd; x++) {
+						if (!isMarked(x, y + 1)) {
+							if (chainCodes) {
+								blob.addInnerContour(traceChainCode(x, y, label, INTERNAL_CONTOUR));
+							} else {
+								blob.addInnerContour(traceContour(x, y, label, INTERNAL_CONTOUR));
+							}
+						}
+					}
+				}
+			}
+		}
+		return blob;
+	}
+
+	@Override
+	boolean isObject(int index, int x, int y) {
+		int r = y - firstY;
+		if (r < 0 || r >= rows) {
+			return false;
+		}
+		int low = rowStart[r];
+		int high = rowStart[r + 1] - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (runs[3 * mid + 2] < x) {
+				low = mid + 1;
+			} else if (runs[3 * mid + 1] > x) {
+				high = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	void mark(int index, int x, int y) {
+		if (2 * (nvisited + 1) > visited.length) {
+			long[] old = visited;
+			visited = new long[old.length * 2];
+			Arrays.fill(visited, EMPTY);
+			for (long key : old) {
+				if (key != EMPTY) {
+					insert(key);
+				}
+			}
+		}
+		if (insert(((long) y << 32) | (x & 0xFFFFFFFFL))) {
+			nvisited++;
+		}
+	}
+
+	@Override
+	void setLabel(int index, int x, int y, int label) {
+		// The component has no label buffer
+	}
+
+	private static int slot(long key, int mask) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	private boolean insert(long key) {
+		int mask = visited.length - 1;
+		int i = slot(key, mask);
+		while (visited[i] != EMPTY) {
+			if (visited[i] == key) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		visited[i] = key;
+		return true;
+	}
+
+	private boolean isMarked(int x, int y) {
+		long key = ((long) y << 32) | (x & 0xFFFFFFFFL);
+		int mask = visited.length - 1;
+		int i = slot(key, mask);
+		while (visited[i] != EMPTY) {
+			if (visited[i] == key) {
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+}
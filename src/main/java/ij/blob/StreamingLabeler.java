@@ -0,0 +1,345 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+/**
+ * Extracts the blobs of a binary image which is read band by band from a {@link RowSource}.
+ * The components are tracked as runs of object pixels between consecutive rows. A blob is
+ * emitted as soon as its component has no pixel in the current row, so only the rows of a band,
+ * the runs of the previous row and the runs of the open components have to be kept in memory.
+ * The contours are traced on the runs of a component, which become the runs of its blob.
+ * The contours of an emitted blob are identical to the contours found by 
+ * {@link ManyBlobs#findConnectedComponents()}, but the labels are assigned in the order in 
+ * which the blobs are emitted.
+ * @author Thorsten Wagner
+ */
+public class StreamingLabeler {
+
+	private RowSource source;
+	private int OBJECT = 0;
+	private int bandHeight = 64;
+	private Calibration cal = new Calibration();
+	private boolean chainCodes = false;
+	private int labelCount;
+
+	/**
+	 * @param source The source of the rows of the binary image
+	 */
+	public StreamingLabeler(RowSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * @param ip Binary image (8-bit)
+	 */
+	public StreamingLabeler(final ImageProcessor ip) {
+		if (!(ip instanceof ByteProcessor)) {
+			throw new IllegalArgumentException("Wrong Image Format. IJ Blob only supports 8-bit, single-channel binary images");
+		}
+		final byte[] pixels = (byte[]) ip.getPixels();
+		this.source = new RowSource() {
+			public int getWidth() {
+				return ip.getWidth();
+			}
+
+			public int getHeight() {
+				return ip.getHeight();
+			}
+
+			public void readRows(int y, int rows, byte[] buffer) {
+				System.arraycopy(pixels, y * ip.getWidth(), buffer, 0, rows * ip.getWidth());
+			}
+		};
+	}
+
+	/**
+	 * Mutator to modify the background target, see {@link ManyBlobs#setBackground(int)}
+	 * @param val : 0 or 1 (black/white respectively)
+	 */
+	public void setBackground(int val) {
+		OBJECT = ManyBlobs.getObjectValue(val);
+	}
+
+	/**
+	 * @param chainCodes true to store the contours of the emitted blobs as chain code
+	 * @see ManyBlobs#setChainCodeContours(boolean)
+	 */
+	public void setChainCodeContours(boolean chainCodes) {
+		this.chainCodes = chainCodes;
+	}
+
+	/**
+	 * @param rows Number of rows which are read from the source at once
+	 */
+	public void setBandHeight(int rows) {
+		if (rows < 1) {
+			throw new IllegalArgumentException("The band height must be at least 1");
+		}
+		bandHeight = rows;
+	}
+
+	/**
+	 * @param cal Calibration of the emitted blobs
+	 */
+	public void setCalibration(Calibration cal) {
+		this.cal = cal;
+	}
+
+	/**
+	 * Reads the whole image and emits every blob as soon as it is complete.
+	 * @param consumer Receives the blobs
+	 */
+	public void findConnectedComponents(Consumer<Blob> consumer) {
+		int width = source.getWidth();
+		int height = source.getHeight();
+		labelCount = 1;
+
+		byte[] band = new byte[bandHeight * width];
+		// Runs of the previous and the current row
+		int[] prevStart = new int[16];
+		int[] prevEnd = new int[16];
+		Component[] prevComp = new Component[16];
+		int nPrev = 0;
+		int[] curStart = new int[16];
+		int[] curEnd = new int[16];
+		Component[] curComp = new Component[16];
+		ArrayList<Component> closed = new ArrayList<Component>();
+
+		for (int bandY = 0; bandY < height; bandY += bandHeight) {
+			int rows = Math.min(bandHeight, height - bandY);
+			source.readRows(bandY, rows, band);
+			for (int r = 0; r < rows; r++) {
+				int y = bandY + r;
+				int offset = r * width;
+				int nCur = 0;
+				int j = 0;
+				int x = 0;
+				while (x < width) {
+					if ((band[offset + x] & 255) != OBJECT) {
+						x++;
+						continue;
+					}
+					int s = x;
+					while (x < width && (band[offset + x] & 255) == OBJECT) {
+						x++;
+					}
+					int e = x - 1;
+
+					// Join all 8-connected runs of the previous row
+					while (j < nPrev && prevEnd[j] < s - 1) {
+						j++;
+					}
+					Component comp = null;
+					for (int k = j; k < nPrev && prevStart[k] <= e + 1; k++) {
+						comp = union(comp, find(prevComp[k]));
+					}
+					if (comp == null) {
+						comp = new Component(y, s);
+					}
+					comp.addRun(y, s, e);
+
+					if (nCur == curStart.length) {
+						curStart = grow(curStart);
+						curEnd = grow(curEnd);
+						Component[] help = new Component[nCur * 2];
+						System.arraycopy(curComp, 0, help, 0, nCur);
+						curComp = help;
+					}
+					curStart[nCur] = s;
+					curEnd[nCur] = e;
+					curComp[nCur] = comp;
+					nCur++;
+				}
+
+				collectClosed(prevComp, nPrev, y, closed);
+				emit(closed, consumer);
+
+				int[] help = prevStart;
+				prevStart = curStart;
+				curStart = help;
+				help = prevEnd;
+				prevEnd = curEnd;
+				curEnd = help;
+				Component[] helpComp = prevComp;
+				prevComp = curComp;
+				curComp = helpComp;
+				nPrev = nCur;
+			}
+		}
+		collectClosed(prevComp, nPrev, height, closed);
+		emit(closed, consumer);
+	}
+
+	/**
+	 * Collects the components of the previous row which have no run in row y.
+	 */
+	private void collectClosed(Component[] prevComp, int nPrev, int y, ArrayList<Component> closed) {
+		for (int k = 0; k < nPrev; k++) {
+			Component comp = find(prevComp[k]);
+			prevComp[k] = null;
+			if (comp.maxY < y && !comp.emitted) {
+				comp.emitted = true;
+				closed.add(comp);
+			}
+		}
+	}
+
+	private void emit(ArrayList<Component> closed, Consumer<Blob> consumer) {
+		if (closed.size() > 1) {
+			Collections.sort(closed, new Comparator<Component>() {
+				public int compare(Component a, Component b) {
+					return a.firstY != b.firstY ? a.firstY - b.firstY : a.firstX - b.firstX;
+				}
+			});
+		}
+		for (Component comp : closed) {
+			consumer.accept(comp.toBlob(labelCount++));
+		}
+		closed.clear();
+	}
+
+	private static Component find(Component comp) {
+		Component root = comp;
+		while (root.parent != null) {
+			root = root.parent;
+		}
+		while (comp.parent != null && comp.parent != root) {
+			Component next = comp.parent;
+			comp.parent = root;
+			comp = next;
+		}
+		return root;
+	}
+
+	private static Component union(Component a, Component b) {
+		if (a == null || a == b) {
+			return b;
+		}
+		// The runs of the smaller component are appended to the bigger one
+		if (a.nruns < b.nruns) {
+			Component help = a;
+			a = b;
+			b = help;
+		}
+		a.merge(b);
+		b.parent = a;
+		b.runs = null;
+		return a;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] help = new int[array.length * 2];
+		System.arraycopy(array, 0, help, 0, array.length);
+		return help;
+	}
+
+	/**
+	 * A (possibly not yet complete) component. Stores its runs as (row, start, end) triples.
+	 */
+	private class Component {
+		Component parent;
+		int[] runs = new int[12];
+		int nruns;
+		int firstX;
+		int firstY;
+		int minX = Integer.MAX_VALUE;
+		int maxX = -1;
+		int maxY;
+		boolean emitted;
+
+		Component(int y, int x) {
+			firstY = y;
+			firstX = x;
+		}
+
+		void addRun(int y, int start, int end) {
+			if (3 * nruns + 3 > runs.length) {
+				runs = grow(runs);
+			}
+			runs[3 * nruns] = y;
+			runs[3 * nruns + 1] = start;
+			runs[3 * nruns + 2] = end;
+			nruns++;
+			minX = Math.min(minX, start);
+			maxX = Math.max(maxX, end);
+			maxY = Math.max(maxY, y);
+		}
+
+		void merge(Component other) {
+			if (3 * (nruns + other.nruns) > runs.length) {
+				int[] help = new int[Math.max(runs.length * 2, 3 * (nruns + other.nruns))];
+				System.arraycopy(runs, 0, help, 0, 3 * nruns);
+				runs = help;
+			}
+			System.arraycopy(other.runs, 0, runs, 3 * nruns, 3 * other.nruns);
+			nruns += other.nruns;
+			minX = Math.min(minX, other.minX);
+			maxX = Math.max(maxX, other.maxX);
+			maxY = Math.max(maxY, other.maxY);
+			if (other.firstY < firstY || (other.firstY == firstY && other.firstX < firstX)) {
+				firstY = other.firstY;
+				firstX = other.firstX;
+			}
+		}
+
+		/**
+		 * Orders the runs by row and x and traces the contours directly on them. The runs
+		 * are handed over to the blob.
+		 */
+		Blob toBlob(int label) {
+			int h = maxY - firstY + 1;
+			int[] rowStart = new int[h + 1];
+			for (int i = 0; i < nruns; i++) {
+				rowStart[runs[3 * i] - firstY + 1]++;
+			}
+			for (int r = 0; r < h; r++) {
+				rowStart[r + 1] += rowStart[r];
+			}
+			// The runs of a row are ordered by their first x, which is stored in the upper half of the key
+			long[] keys = new long[nruns];
+			int[] next = Arrays.copyOf(rowStart, h);
+			for (int i = 0; i < nruns; i++) {
+				keys[next[runs[3 * i] - firstY]++] = ((long) runs[3 * i + 1] << 32) | runs[3 * i + 2];
+			}
+			int[] sorted = new int[3 * nruns];
+			for (int r = 0; r < h; r++) {
+				Arrays.sort(keys, rowStart[r], rowStart[r + 1]);
+				for (int i = rowStart[r]; i < rowStart[r + 1]; i++) {
+					sorted[3 * i] = firstY + r;
+					sorted[3 * i + 1] = (int) (keys[i] >>> 32);
+					sorted[3 * i + 2] = (int) keys[i];
+				}
+			}
+			runs = null;
+
+			Blob blob = new RunContourTracer(sorted, rowStart, firstY, source.getWidth(), source.getHeight()).traceBlob(label, cal, chainCodes);
+			blob.setRuns(sorted);
+			return blob;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+    IJBlob is a ImageJ library for extracting connected components in binary Images
+    Copyright (C) 2012  Thorsten Wagner wagner@biomedical-imaging.de
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package ij.blob;
+
+import ij.measure.Calibration;
+import ij.process.ImageProcessor;
+
+import java.awt.Rectangle;
+
+/**
+ * Does Connected Component Labeling on an image of any type which is thresholded while
+ * it is scanned. Pixels with a value in [lower, upper] are objects, all other pixels
+ * (and NaN) are background. No binary copy of the image is made. The blobs and the labeled
+ * image are identical to the result of labeling the thresholded 8-bit image.
+ * @author Thorsten Wagner
+ */
+class ThresholdConnectedComponentLabeler extends ConnectedComponentLabeler {
+
+	private float lower;
+	private float upper;
+
+	/**
+	 * @param allBlobs A ManyBlobs Object where the Blobs has to be stored
+	 * @param ip The image (8-bit, 16-bit or 32-bit)
+	 * @param cal The calibration of the image
+	 * @param lower Lower threshold
+	 * @param upper Upper threshold
+	 */
+	public ThresholdConnectedComponentLabeler(ManyBlobs allBlobs, ImageProcessor ip, Calibration cal, float lower, float upper) {
+		super(allBlobs, ip.getWidth(), ip.getHeight(), cal);
+		this.ip = ip;
+		this.lower = lower;
+		this.upper = upper;
+	}
+
+	@Override
+	ContourTracer createTracer() {
+		return new ContourTracer(ip, lower, upper, labels, marks);
+	}
+
+	/**
+	 * The region of interest of the image is ignored.
+	 */
+	@Override
+	Rectangle getScanRegion() {
+		return new Rectangle(0, 0, width, height);
+	}
+
+	@Override
+	boolean isObject(int index) {
+		float value = ip.getf(index);
+		return value >= lower && value <= upper;
+	}
+}
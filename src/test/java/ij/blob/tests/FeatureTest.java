@@ -4,11 +4,20 @@ import static org.junit.Assert.*;
 
 import java.awt.Polygon;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import ij.IJ;
 import ij.ImagePlus;
 import ij.blob.Blob;
+import ij.blob.BlobFeatureExtractor;
 import ij.blob.ManyBlobs;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
 
 import org.junit.Test;
 
@@ -51,7 +60,39 @@ public class FeatureTest {
 		double featurevalue = (Double)mb.get(0).evaluateCustomFeature("myFancyFeature",a,c);
 		double diff = mb.get(0).getEnclosedArea()-featurevalue;
 		assertEquals(-(c*a-1)*mb.get(0).getEnclosedArea(), diff,0);
-		
+		assertNull(test.getBlob());
+	}
+
+	@Test
+	public void testCustomBlobFeatureConcurrent() throws Exception {
+		URL url = this.getClass().getClassLoader().getResource("3blobs.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		final ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		Blob.addCustomFeature(new ExampleBlobFeature());
+		final double[][] values = new double[mb.size()][200];
+		Thread[] threads = new Thread[mb.size()];
+		for (int i = 0; i < threads.length; i++) {
+			final int k = i;
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < values[k].length; j++) {
+						try {
+							values[k][j] = (Double) mb.get(k).evaluateCustomFeature("myFancyFeature", 1, 1f);
+						} catch (NoSuchMethodException e) {
+							values[k][j] = -1;
+						}
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join();
+			for (int j = 0; j < values[i].length; j++) {
+				assertEquals(mb.get(i).getEnclosedArea(), values[i][j], 0);
+			}
+		}
 	}
 	
 	@Test
@@ -145,6 +186,22 @@ public class FeatureTest {
 		assertEquals(60, max,2);
 	}
 
+	@Test
+	public void testDiametersMaximumInscribedCircleBatch() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		double[] diameters = mb.computeDiametersMaximumInscribedCircle();
+		
+		ManyBlobs reference = new ManyBlobs(ip);
+		reference.findConnectedComponents();
+		for (int i = 0; i < reference.size(); i++) {
+			assertEquals(reference.get(i).getDiamaterMaximumInscribedCircle(), diameters[i], 0);
+			assertEquals(diameters[i], mb.get(i).getDiamaterMaximumInscribedCircle(), 0);
+		}
+	}
+
 /*
 	@Test
 	public void testGetElongation() {
@@ -152,6 +209,33 @@ public class FeatureTest {
 		fail("Not yet implemented");
 	}
 	*/
+	@Test
+	public void testEllipseFitRotatedBar() {
+		ByteProcessor bp = new ByteProcessor(60, 60);
+		bp.setColor(255);
+		bp.fill();
+		bp.setColor(0);
+		bp.setLineWidth(5);
+		bp.drawLine(10, 50, 50, 10);
+		ManyBlobs mb = new ManyBlobs(new ImagePlus("", bp));
+		mb.findConnectedComponents();
+		assertEquals(1, mb.size());
+		// The bar rises to the right, so its major axis is at 45 degree (counter clockwise)
+		assertEquals(45, mb.get(0).getOrientationMajorAxis(), 0.5);
+		assertEquals(-45, mb.get(0).getOrientationMinorAxis(), 0.5);
+		assertTrue(mb.get(0).getElongation() > 0.9);
+		assertTrue(mb.get(0).getEigenvalueMajorAxis() > 10*mb.get(0).getEigenvalueMinorAxis());
+	}
+	
+	@Test
+	public void testGetElongationCircle() {
+		URL url = this.getClass().getClassLoader().getResource("circle_r30.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		assertEquals(0, mb.get(0).getElongation(), 0.1);
+	}
+	
 	@Test
 	public void testGetMinimumBoundingRectangle() {
 		URL url = this.getClass().getClassLoader().getResource("rotatedsquare2.tif");
@@ -164,6 +248,36 @@ public class FeatureTest {
 	}
 
 
+	@Test
+	public void testMinimumBoundingRectangleSquares() {
+		URL url = this.getClass().getClassLoader().getResource("squares_20x20_30x30.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		for (Blob blob : mb) {
+			// The rectangle runs through the centers of the border pixels
+			double side = Math.sqrt(blob.getEnclosedArea())-1;
+			assertEquals(side, blob.getLongSideMBR(), 1e-9);
+			assertEquals(side, blob.getShortSideMBR(), 1e-9);
+			assertEquals(1, blob.getAspectRatio(), 1e-9);
+		}
+	}
+	
+	@Test
+	public void testFeretValuesSquares() {
+		URL url = this.getClass().getClassLoader().getResource("squares_20x20_30x30.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		for (Blob blob : mb) {
+			double side = Math.sqrt(blob.getEnclosedArea())-1;
+			assertEquals(side*Math.sqrt(2), blob.getFeretDiameter(), 1e-9);
+			assertEquals(side, blob.getMinFeretDiameter(), 1e-9);
+			assertEquals(side, blob.getFeretOrthogonalWidth(), 1e-9);
+			assertEquals(45, Math.abs(90-blob.getFeretAngle()), 1e-9);
+		}
+	}
+	
 	@Test
 	public void testGetPerimeterCircleRad30() {
 		URL url = this.getClass().getClassLoader().getResource("circle_r30.tif");
@@ -185,6 +299,53 @@ public class FeatureTest {
 	}
 	
 
+	@Test
+	public void testAreaConvexHullSquares() {
+		URL url = this.getClass().getClassLoader().getResource("squares_20x20_30x30.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		for (Blob blob : mb) {
+			assertEquals(blob.getEnclosedArea(), blob.getAreaConvexHull(), 0);
+			assertEquals(1, blob.getSolidity(), 0);
+			assertEquals(4, blob.getConvexHull().npoints-1);
+		}
+	}
+	
+	@Test
+	public void testPerimeterConvexHullDegenerate() {
+		// ..##.
+		// .#.#.
+		// The contour passes (2,1) twice, the hull is (2,1) (3,1) (3,2) (1,2)
+		ByteProcessor bp = new ByteProcessor(5, 4);
+		bp.setValue(255);
+		bp.fill();
+		bp.set(2, 1, 0);
+		bp.set(3, 1, 0);
+		bp.set(1, 2, 0);
+		bp.set(3, 2, 0);
+		ManyBlobs mb = new ManyBlobs(new ImagePlus("", bp));
+		mb.findConnectedComponents();
+		assertEquals(1, mb.size());
+		assertEquals(4, mb.get(0).getConvexHull().npoints-1);
+		assertEquals(1 + 1 + 2 + Math.sqrt(2), mb.get(0).getPerimeterConvexHull(), 1e-9);
+	}
+	
+	@Test
+	public void testConvexHullOfPolygonBlob() {
+		// The polygon has no points on the rows between its corners
+		Polygon square = new Polygon(new int[]{0, 10, 10, 0}, new int[]{0, 0, 10, 10}, 4);
+		Blob b = new Blob(square, 1);
+		Polygon hull = b.getConvexHull();
+		assertEquals(4, hull.npoints-1);
+		for(int i = 0; i < hull.npoints; i++){
+			assertTrue(hull.xpoints[i] == 0 || hull.xpoints[i] == 10);
+			assertTrue(hull.ypoints[i] == 0 || hull.ypoints[i] == 10);
+		}
+		assertEquals(40, b.getPerimeterConvexHull(), 1e-9);
+		assertEquals(121, b.getAreaConvexHull(), 1e-9);
+	}
+	
 	@Test
 	public void testGetPerimeterConvexHull() {
 		URL url = this.getClass().getClassLoader().getResource("square100x100_minus30x30.png");
@@ -195,6 +356,184 @@ public class FeatureTest {
 		assertEquals(periConv, mb.get(0).getPerimeterConvexHull(),2);
 	}
 
+	@Test
+	public void testEnclosedAreaWithHoles() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		double area = 0;
+		for (Blob blob : mb) {
+			area += blob.getEnclosedArea();
+		}
+		// Holes are excluded, so the areas sum up to the number of object pixels
+		assertEquals(ip.getStatistics().histogram[0], area, 0);
+	}
+
+	@Test
+	public void testFeatureExtractor() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		String[] features = {Blob.GETENCLOSEDAREA, Blob.GETPERIMETER, Blob.GETSOLIDITY, Blob.GETFERETDIAMETER,
+				Blob.GETMINFERETDIAMETER, Blob.GETDIAMETERMAXIMUMINSCRIBEDCIRCLE, Blob.GETFRACTALBOXDIMENSION, Blob.GETNUMBEROFHOLES};
+		double[][] values = new BlobFeatureExtractor(features).extract(mb);
+		
+		ManyBlobs reference = new ManyBlobs(ip);
+		reference.findConnectedComponents();
+		assertEquals(reference.size(), values.length);
+		for (int i = 0; i < values.length; i++) {
+			Blob b = reference.get(i);
+			assertEquals(b.getEnclosedArea(), values[i][0], 0);
+			assertEquals(b.getPerimeter(), values[i][1], 0);
+			assertEquals(b.getSolidity(), values[i][2], 0);
+			assertEquals(b.getFeretDiameter(), values[i][3], 0);
+			assertEquals(b.getMinFeretDiameter(), values[i][4], 0);
+			assertEquals(b.getDiamaterMaximumInscribedCircle(), values[i][5], 0);
+			assertEquals(b.getFractalBoxDimension(), values[i][6], 0);
+			assertEquals(b.getNumberofHoles(), values[i][7], 0);
+		}
+	}
+	
+	@Test
+	public void testFeatureExtractorMoments() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.setChainCodeContours(true);
+		mb.findConnectedComponents();
+		String[] features = {Blob.GETPERIMETER, Blob.GETCONVEXITY, Blob.GETEIGENVALUEMAJORAXIS, Blob.GETELONGATION,
+				"getCentralMoments(2,0)", "getMoment(4, 1)", "getNormalizedCentralMoment(1,1)", "getHuMoments(1)", "getHuMoments(7)"};
+		double[][] values = new BlobFeatureExtractor(features).extract(mb);
+		
+		ManyBlobs reference = new ManyBlobs(ip);
+		reference.findConnectedComponents();
+		for (int i = 0; i < values.length; i++) {
+			Blob b = reference.get(i);
+			assertEquals(b.getPerimeter(), values[i][0], 0);
+			assertEquals(b.getConvexity(), values[i][1], 0);
+			assertEquals(b.getEigenvalueMajorAxis(), values[i][2], 0);
+			assertEquals(b.getElongation(), values[i][3], 0);
+			assertEquals(b.getCentralMoments(2, 0), values[i][4], 0);
+			assertEquals(b.getMoment(4, 1), values[i][5], 0);
+			assertEquals(b.getNormalizedCentralMoment(1, 1), values[i][6], 0);
+			assertEquals(b.getHuMoments()[0], values[i][7], 0);
+			assertEquals(b.getHuMoments()[6], values[i][8], 0);
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testFeatureExtractorHuMomentOutOfRange() {
+		new BlobFeatureExtractor("getHuMoments(8)");
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testFeatureExtractorUnknownFeature() {
+		new BlobFeatureExtractor(Blob.GETENCLOSEDAREA, "myFancyFeature");
+	}
+	
+	@Test
+	public void testEnclosedAreaFromContours() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		for (Blob blob : mb) {
+			// A blob which is not created by the labeling has no runs, its area is calculated from the contours
+			Blob copy = new Blob(blob.getOuterContour(), blob.getLabel());
+			copy.getInnerContours().addAll(blob.getInnerContours());
+			assertEquals(blob.getEnclosedArea(), copy.getEnclosedArea(), 0);
+		}
+	}
+	
+	@Test
+	public void testCentralMomentsSquares() {
+		URL url = this.getClass().getClassLoader().getResource("squares_20x20_30x30.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		for (Blob blob : mb) {
+			double s = Math.sqrt(blob.getEnclosedArea());
+			assertEquals(s*s, blob.getMoment(0, 0), 0);
+			assertEquals(s*s*(s*s-1)/12, blob.getCentralMoments(2, 0), 1e-6);
+			assertEquals(s*s*(s*s-1)/12, blob.getCentralMoments(0, 2), 1e-6);
+			assertEquals(0, blob.getCentralMoments(1, 1), 1e-6);
+			assertEquals(0, blob.getCentralMoments(3, 0), 1e-6);
+		}
+	}
+	
+	@Test
+	public void testMomentsConcurrentWithoutRuns() throws Exception {
+		// A blob built from a polygon has no recorded runs, they are drawn on the first request
+		Polygon p = new Polygon(new int[]{0, 20, 25, 3}, new int[]{0, 2, 30, 22}, 4);
+		Blob expected = new Blob(p, 1);
+		double m00 = expected.getMoment(0, 0);
+		double mu20 = expected.getCentralMoments(2, 0);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for (int round = 0; round < 50; round++) {
+				final Blob b = new Blob(new Polygon(p.xpoints, p.ypoints, p.npoints), 1);
+				List<Future<double[]>> results = new ArrayList<Future<double[]>>();
+				for (int t = 0; t < 8; t++) {
+					results.add(executor.submit(new Callable<double[]>() {
+						@Override
+						public double[] call() {
+							return new double[]{b.getMoment(0, 0), b.getCentralMoments(2, 0)};
+						}
+					}));
+				}
+				for (Future<double[]> result : results) {
+					assertEquals(m00, result.get()[0], 0);
+					assertEquals(mu20, result.get()[1], 1e-9);
+				}
+				assertArrayEquals(expected.getRunLengthEncoding(), b.getRunLengthEncoding());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testHuMomentsRotationInvariant() {
+		URL url = this.getClass().getClassLoader().getResource("correctcontour.png");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		ImagePlus rotated = new ImagePlus("", ip.getProcessor().rotateRight());
+		ManyBlobs mbRotated = new ManyBlobs(rotated);
+		mbRotated.findConnectedComponents();
+		
+		double[] hu = mb.get(0).getHuMoments();
+		double[] huRotated = mbRotated.get(0).getHuMoments();
+		for (int i = 0; i < hu.length; i++) {
+			assertEquals(hu[i], huRotated[i], Math.abs(hu[i])*1e-9 + 1e-20);
+		}
+		assertEquals(mb.get(0).getNormalizedCentralMoment(2, 0)+mb.get(0).getNormalizedCentralMoment(0, 2), hu[0], 1e-12);
+	}
+	
+	@Test
+	public void testHuMomentsCalibrationInvariant() {
+		URL url = this.getClass().getClassLoader().getResource("correctcontour.png");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		ImagePlus calibrated = new ImagePlus("", ip.getProcessor().duplicate());
+		Calibration cal = new Calibration();
+		cal.pixelWidth = 2.5;
+		cal.pixelHeight = 2.5;
+		calibrated.setCalibration(cal);
+		ManyBlobs mbCalibrated = new ManyBlobs(calibrated);
+		mbCalibrated.findConnectedComponents();
+		
+		double[] hu = mb.get(0).getHuMoments();
+		double[] huCalibrated = mbCalibrated.get(0).getHuMoments();
+		for (int i = 0; i < hu.length; i++) {
+			assertEquals(hu[i], huCalibrated[i], Math.abs(hu[i])*1e-9 + 1e-20);
+		}
+		assertEquals(mb.get(0).getNormalizedCentralMoment(2, 0), mbCalibrated.get(0).getNormalizedCentralMoment(2, 0), 1e-12);
+	}
+	
 	@Test
 	public void testEnclosedAreaCircleRad30() {
 		URL url = this.getClass().getClassLoader().getResource("circle_r30.tif");
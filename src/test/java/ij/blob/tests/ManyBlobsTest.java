@@ -1,11 +1,30 @@
 package ij.blob.tests;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.awt.Polygon;
+import java.awt.Rectangle;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
 import ij.blob.Blob;
+import ij.blob.BlobLinker;
+import ij.blob.LabelingSession;
 import ij.blob.ManyBlobs;
+import ij.blob.PackedBinaryImage;
+import ij.blob.StreamingLabeler;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
 
 import org.junit.Test;
 public class ManyBlobsTest {
@@ -38,6 +57,19 @@ public class ManyBlobsTest {
 		assertEquals(4, mb.size(),0);
 	}
 	
+	@Test
+	public void testBlobsOnBorderImageUnchanged() {
+		URL url = this.getClass().getClassLoader().getResource("squaresOnBoarder.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ImageProcessor proc = ip.getProcessor();
+		int width = ip.getWidth();
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		assertSame(proc, ip.getProcessor());
+		assertEquals(width, ip.getWidth());
+		assertEquals(width, mb.getLabeledImage().getWidth());
+	}
+	
 	@Test
 	public void testBlobsOnBorderInvertedLUT() {
 		URL url = this.getClass().getClassLoader().getResource("squaresOnBoarder.tif");
@@ -99,6 +131,393 @@ public class ManyBlobsTest {
 		assertEquals(1, mb.size(),0);
 	}
 	
+	@Test
+	public void testGetBlobByLabel() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		for (Blob blob : mb) {
+			assertSame(blob, mb.getBlobByLabel(blob.getLabel()));
+		}
+		Blob removed = mb.remove(0);
+		assertEquals(null, mb.getBlobByLabel(removed.getLabel()));
+		assertSame(mb.get(0), mb.getBlobByLabel(mb.get(0).getLabel()));
+		mb.get(0).setLabel(1000);
+		assertSame(mb.get(0), mb.getBlobByLabel(1000));
+		mb.clear();
+		assertEquals(null, mb.getBlobByLabel(1000));
+	}
+	
+	@Test
+	public void testFindConnectedComponentsParallel() {
+		String[] images = {"complexImage.tif", "nestedObjects.tif", "FiveBlobsOnEdge.tif"};
+		ForkJoinPool pool = new ForkJoinPool(4);
+		for (String image : images) {
+			URL url = this.getClass().getClassLoader().getResource(image);
+			ImagePlus ip = new ImagePlus(url.getPath());
+			ManyBlobs sequential = new ManyBlobs(ip);
+			sequential.findConnectedComponents();
+			ManyBlobs parallel = new ManyBlobs(ip);
+			parallel.findConnectedComponentsParallel(pool);
+			assertEquals(sequential.size(), parallel.size());
+			for (int i = 0; i < sequential.size(); i++) {
+				Blob a = sequential.get(i);
+				Blob b = parallel.get(i);
+				assertEquals(a.getLabel(), b.getLabel());
+				assertArrayEquals(a.getOuterContourAsChainCode(), b.getOuterContourAsChainCode());
+				assertEquals(a.getOuterContour().xpoints[0], b.getOuterContour().xpoints[0]);
+				assertEquals(a.getOuterContour().ypoints[0], b.getOuterContour().ypoints[0]);
+				assertEquals(a.getNumberofHoles(), b.getNumberofHoles());
+			}
+			assertArrayEquals((int[]) sequential.getLabeledImage().getProcessor().getPixels(), 
+					(int[]) parallel.getLabeledImage().getProcessor().getPixels());
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void testFindConnectedComponentsParallelRoi() {
+		URL url = this.getClass().getClassLoader().getResource("complexImage.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ip.getProcessor().setRoi(new Rectangle(20, 30, ip.getWidth() / 2, ip.getHeight() / 2));
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ManyBlobs sequential = new ManyBlobs(ip);
+		sequential.findConnectedComponents();
+		ManyBlobs parallel = new ManyBlobs(ip);
+		parallel.findConnectedComponentsParallel(pool);
+		pool.shutdown();
+		assertEquals(sequential.size(), parallel.size());
+		for (int i = 0; i < sequential.size(); i++) {
+			assertEquals(sequential.get(i).getLabel(), parallel.get(i).getLabel());
+			assertArrayEquals(sequential.get(i).getOuterContourAsChainCode(), parallel.get(i).getOuterContourAsChainCode());
+		}
+		assertArrayEquals((int[]) sequential.getLabeledImage().getProcessor().getPixels(),
+				(int[]) parallel.getLabeledImage().getProcessor().getPixels());
+	}
+
+	@Test
+	public void testStreamingLabeler() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		final ArrayList<Blob> streamed = new ArrayList<Blob>();
+		StreamingLabeler labeler = new StreamingLabeler(ip.getProcessor());
+		labeler.setBandHeight(7);
+		labeler.findConnectedComponents(new Consumer<Blob>() {
+			public void accept(Blob blob) {
+				streamed.add(blob);
+			}
+		});
+		assertEquals(mb.size(), streamed.size());
+		for (Blob blob : streamed) {
+			Polygon contour = blob.getOuterContour();
+			Blob expected = null;
+			for (Blob candidate : mb) {
+				if (candidate.getOuterContour().xpoints[0] == contour.xpoints[0] && candidate.getOuterContour().ypoints[0] == contour.ypoints[0]) {
+					expected = candidate;
+				}
+			}
+			assertArrayEquals(expected.getOuterContourAsChainCode(), blob.getOuterContourAsChainCode());
+			assertEquals(expected.getNumberofHoles(), blob.getNumberofHoles());
+			assertArrayEquals(expected.getRunLengthEncoding(), blob.getRunLengthEncoding());
+		}
+	}
+	
+	@Test
+	public void testStreamingLabelerChainCodes() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		final ArrayList<Blob> streamed = new ArrayList<Blob>();
+		StreamingLabeler labeler = new StreamingLabeler(ip.getProcessor());
+		labeler.setChainCodeContours(true);
+		labeler.findConnectedComponents(new Consumer<Blob>() {
+			public void accept(Blob blob) {
+				streamed.add(blob);
+			}
+		});
+		assertEquals(mb.size(), streamed.size());
+		for (Blob blob : streamed) {
+			Polygon contour = blob.getOuterContour();
+			Blob expected = null;
+			for (Blob candidate : mb) {
+				if (candidate.getOuterContour().xpoints[0] == contour.xpoints[0] && candidate.getOuterContour().ypoints[0] == contour.ypoints[0]) {
+					expected = candidate;
+				}
+			}
+			assertArrayEquals(expected.getOuterContour().xpoints, contour.xpoints);
+			assertArrayEquals(expected.getOuterContour().ypoints, contour.ypoints);
+			assertEquals(expected.getNumberofHoles(), blob.getNumberofHoles());
+			for (int i = 0; i < blob.getNumberofHoles(); i++) {
+				assertArrayEquals(expected.getInnerContours().get(i).xpoints, blob.getInnerContours().get(i).xpoints);
+				assertArrayEquals(expected.getInnerContours().get(i).ypoints, blob.getInnerContours().get(i).ypoints);
+			}
+		}
+	}
+	
+	@Test
+	public void testFindConnectedComponentsStack() {
+		URL url = this.getClass().getClassLoader().getResource("3blobs.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		URL url2 = this.getClass().getClassLoader().getResource("3blobsInv.tif");
+		ImagePlus ip2 = new ImagePlus(url2.getPath());
+		ImageStack stack = new ImageStack(ip.getWidth(), ip.getHeight());
+		for (int i = 0; i < 5; i++) {
+			stack.addSlice(i % 2 == 0 ? ip.getProcessor() : ip2.getProcessor());
+		}
+		ManyBlobs[] result = ManyBlobs.findConnectedComponents(new ImagePlus("stack", stack), 2);
+		assertEquals(5, result.length);
+		for (int i = 0; i < 5; i++) {
+			ManyBlobs mb = new ManyBlobs(i % 2 == 0 ? ip : ip2);
+			mb.findConnectedComponents();
+			assertEquals(mb.size(), result[i].size());
+			assertArrayEquals((int[]) mb.getLabeledImage().getProcessor().getPixels(), 
+					(int[]) result[i].getLabeledImage().getProcessor().getPixels());
+		}
+	}
+	
+	@Test
+	public void testFindConnectedComponentsOfStackThresholded() {
+		ImageStack stack = new ImageStack(20, 20);
+		for (int i = 0; i < 3; i++) {
+			ShortProcessor sp = new ShortProcessor(20, 20);
+			sp.setValue(100);
+			sp.fill(new Roi(2 + i, 3, 5 + i, 6));
+			sp.fill(new Roi(12, 12, 4, 4));
+			stack.addSlice(sp);
+		}
+		ManyBlobs mb = new ManyBlobs(new ImagePlus("stack", stack), 50, 200);
+		mb.setChainCodeContours(true);
+		ManyBlobs[] result = mb.findConnectedComponentsOfStack(2);
+		assertEquals(3, result.length);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(2, result[i].size());
+			assertEquals(6 * (5 + i), result[i].get(0).getEnclosedArea(), 0);
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testFindConnectedComponentsStackNotBinary() {
+		ImageStack stack = new ImageStack(10, 10);
+		stack.addSlice(new ByteProcessor(10, 10));
+		ByteProcessor gray = new ByteProcessor(10, 10);
+		gray.set(5, 5, 128);
+		stack.addSlice(gray);
+		ManyBlobs.findConnectedComponents(new ImagePlus("stack", stack), 2);
+	}
+	
+	@Test
+	public void testFindConnectedComponentsPacked() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		ManyBlobs packed = new ManyBlobs(PackedBinaryImage.pack(ip.getProcessor(), 0));
+		packed.findConnectedComponents();
+		assertEquals(mb.size(), packed.size());
+		for (int i = 0; i < mb.size(); i++) {
+			assertEquals(mb.get(i).getOuterContour().npoints, packed.get(i).getOuterContour().npoints);
+			assertEquals(mb.get(i).getNumberofHoles(), packed.get(i).getNumberofHoles());
+		}
+		assertArrayEquals((int[]) mb.getLabeledImage().getProcessor().getPixels(), 
+				(int[]) packed.getLabeledImage().getProcessor().getPixels());
+	}
+	
+	@Test
+	public void testFindConnectedComponentsThreshold() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		// 16-bit image in which the objects have the values 1000 to 1099
+		ImageProcessor binary = ip.getProcessor();
+		ShortProcessor sp = new ShortProcessor(ip.getWidth(), ip.getHeight());
+		for (int i = 0; i < ip.getWidth() * ip.getHeight(); i++) {
+			sp.set(i, binary.get(i) == 0 ? 1000 + i % 100 : i % 1000);
+		}
+		ManyBlobs thresholded = new ManyBlobs(new ImagePlus("16-bit", sp), 1000, 1099);
+		thresholded.findConnectedComponents();
+		assertEquals(mb.size(), thresholded.size());
+		for (int i = 0; i < mb.size(); i++) {
+			assertEquals(mb.get(i).getEnclosedArea(), thresholded.get(i).getEnclosedArea(), 0);
+			assertEquals(mb.get(i).getNumberofHoles(), thresholded.get(i).getNumberofHoles());
+		}
+		assertArrayEquals((int[]) mb.getLabeledImage().getProcessor().getPixels(), 
+				(int[]) thresholded.getLabeledImage().getProcessor().getPixels());
+	}
+	
+	@Test
+	public void testThresholdNotRepresentableAsFloat() {
+		// 0.1 is no float, the pixels hold 0.1f which is larger than the double 0.1
+		FloatProcessor fp = new FloatProcessor(10, 10);
+		fp.setValue(0.1f);
+		fp.fill(new Roi(2, 2, 3, 3));
+		ImagePlus imp = new ImagePlus("float", fp);
+		ManyBlobs mb = new ManyBlobs(imp, 0.05, 0.1);
+		mb.findConnectedComponents();
+		assertEquals(1, mb.size());
+		mb.updateConnectedComponents(new Rectangle(0, 0, 10, 10));
+		assertEquals(1, mb.size());
+		ManyBlobs region = new ManyBlobs(imp, 0.05, 0.1);
+		region.findConnectedComponents(new Roi(0, 0, 10, 10));
+		assertEquals(1, region.size());
+		assertEquals(9, region.get(0).getEnclosedArea(), 0);
+	}
+	
+	@Test
+	public void testFindConnectedComponentsRoi() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		Roi roi = new Roi(20, 30, ip.getWidth() / 2, ip.getHeight() / 2);
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents(roi);
+		
+		ImageProcessor crop = ip.getProcessor().duplicate();
+		crop.setRoi(roi);
+		ManyBlobs cropped = new ManyBlobs(new ImagePlus("crop", crop.crop()));
+		cropped.findConnectedComponents();
+		assertEquals(cropped.size(), mb.size());
+		for (int i = 0; i < mb.size(); i++) {
+			Polygon p = cropped.get(i).getOuterContour();
+			p.translate(20, 30);
+			assertArrayEquals(p.xpoints, mb.get(i).getOuterContour().xpoints);
+			assertArrayEquals(p.ypoints, mb.get(i).getOuterContour().ypoints);
+			assertEquals(cropped.get(i).getEnclosedArea(), mb.get(i).getEnclosedArea(), 0);
+			assertEquals(cropped.get(i).getCenterOfGravity().getX() + 20, mb.get(i).getCenterOfGravity().getX(), 0.0001);
+			assertEquals(cropped.get(i).getCenterOfGravity().getY() + 30, mb.get(i).getCenterOfGravity().getY(), 0.0001);
+		}
+		assertEquals(roi.getBounds().width, mb.getLabeledImage().getWidth());
+	}
+	
+	@Test
+	public void testFindConnectedComponentsOvalRoi() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		Roi roi = new OvalRoi(10, 10, ip.getWidth() - 20, ip.getHeight() - 20);
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents(roi);
+		ImageProcessor mask = roi.getMask();
+		int objectPixels = 0;
+		for (int y = 0; y < mask.getHeight(); y++) {
+			for (int x = 0; x < mask.getWidth(); x++) {
+				if (mask.get(x, y) != 0 && ip.getProcessor().get(x + 10, y + 10) == 0) {
+					objectPixels++;
+				}
+			}
+		}
+		double area = 0;
+		for (Blob blob : mb) {
+			area += blob.getEnclosedArea();
+			assertEquals(true, roi.getBounds().contains(blob.getOuterContour().getBounds()));
+		}
+		assertEquals(objectPixels, area, 0);
+	}
+	
+	@Test
+	public void testUpdateConnectedComponents() {
+		URL url = this.getClass().getClassLoader().getResource("3blobs.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ImageProcessor proc = ip.getProcessor();
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		ArrayList<Blob> before = new ArrayList<Blob>(mb);
+		
+		// Draw a new blob
+		Rectangle changed = new Rectangle(10, 400, 3, 3);
+		proc.setValue(0);
+		proc.fill(new Roi(changed));
+		mb.updateConnectedComponents(changed);
+		assertEquals(4, mb.size());
+		for (int i = 0; i < before.size(); i++) {
+			assertSame(before.get(i), mb.getBlobByLabel(before.get(i).getLabel()));
+		}
+		Blob added = mb.get(3);
+		assertEquals(4, added.getLabel());
+		assertEquals(9, added.getEnclosedArea(), 0);
+		assertEquals(4, mb.getLabeledImage().getProcessor().get(11, 401));
+		
+		// Erase it again
+		proc.setValue(255);
+		proc.fill(new Roi(changed));
+		mb.updateConnectedComponents(changed);
+		assertEquals(3, mb.size());
+		assertEquals(0, mb.getLabeledImage().getProcessor().get(11, 401));
+	}
+	
+	@Test
+	public void testLabelingSession() {
+		String[] frames = {"3blobs.tif", "nestedObjects.tif", "3blobs.tif", "complexImage.tif"};
+		LabelingSession session = new LabelingSession();
+		for (String frame : frames) {
+			URL url = this.getClass().getClassLoader().getResource(frame);
+			ImagePlus ip = new ImagePlus(url.getPath());
+			ManyBlobs mb = new ManyBlobs(ip);
+			mb.findConnectedComponents();
+			ManyBlobs reused = session.findConnectedComponents(ip);
+			assertEquals(mb.size(), reused.size());
+			for (int i = 0; i < mb.size(); i++) {
+				assertArrayEquals(mb.get(i).getOuterContour().xpoints, reused.get(i).getOuterContour().xpoints);
+				assertEquals(mb.get(i).getNumberofHoles(), reused.get(i).getNumberofHoles());
+			}
+			assertArrayEquals((int[]) mb.getLabeledImage().getProcessor().getPixels(), 
+					(int[]) reused.getLabeledImage().getProcessor().getPixels());
+		}
+	}
+	
+	@Test
+	public void testBlobLinker() {
+		URL url = this.getClass().getClassLoader().getResource("3blobs.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs previous = new ManyBlobs(ip);
+		previous.findConnectedComponents();
+		
+		// Cut the first blob into two parts
+		ImageProcessor proc = ip.getProcessor().duplicate();
+		proc.setValue(255);
+		proc.fill(new Roi(400, 0, 2, proc.getHeight()));
+		ManyBlobs next = new ManyBlobs(new ImagePlus("next", proc));
+		next.findConnectedComponents();
+		assertEquals(4, next.size());
+		
+		List<BlobLinker.Link> links = new BlobLinker().link(previous, next);
+		assertEquals(4, links.size());
+		assertSame(previous.get(0), links.get(0).getPrevious());
+		assertSame(previous.get(0), links.get(1).getPrevious());
+		assertSame(previous.get(1), links.get(2).getPrevious());
+		assertSame(previous.get(2), links.get(3).getPrevious());
+		for (BlobLinker.Link link : links) {
+			assertEquals(true, link.getOverlap() > 0);
+			assertEquals(true, link.getOverlap() <= link.getNext().getEnclosedArea());
+		}
+	}
+	
+	@Test
+	public void testChainCodeContours() {
+		URL url = this.getClass().getClassLoader().getResource("nestedObjects.tif");
+		ImagePlus ip = new ImagePlus(url.getPath());
+		ManyBlobs mb = new ManyBlobs(ip);
+		mb.findConnectedComponents();
+		ManyBlobs compact = new ManyBlobs(ip);
+		compact.setChainCodeContours(true);
+		compact.findConnectedComponents();
+		assertEquals(mb.size(), compact.size());
+		for (int i = 0; i < mb.size(); i++) {
+			assertArrayEquals(mb.get(i).getOuterContourAsChainCode(), compact.get(i).getOuterContourAsChainCode());
+			assertEquals(mb.get(i).getNumberofHoles(), compact.get(i).getNumberofHoles());
+			Polygon p = mb.get(i).getOuterContour();
+			Polygon q = compact.get(i).getOuterContour();
+			assertEquals(p.npoints, q.npoints);
+			assertEquals(p.getBounds(), q.getBounds());
+			assertEquals(mb.get(i).getPerimeter(), compact.get(i).getPerimeter(), 0);
+			for (int j = 0; j < mb.get(i).getNumberofHoles(); j++) {
+				assertEquals(mb.get(i).getInnerContours().get(j).getBounds(), compact.get(i).getInnerContours().get(j).getBounds());
+			}
+		}
+	}
+	
 	@Test (expected=RuntimeException.class)
 	public void testNewObject_findConnectedComponents() {
 		ManyBlobs t = new ManyBlobs();